@@ -3,9 +3,14 @@ package com.guichaguri.wriketrellosync;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -56,19 +61,62 @@ public abstract class Card implements Comparable<Card> {
         description = card.description;
         index = card.index;
         type = card.type;
+        dueDate = card.dueDate;
+        dueComplete = card.dueComplete;
+        assignedUsers = new ArrayList<>(card.assignedUsers);
     }
 
+    /**
+     * Hashes exactly the fields that are synchronized between platforms.
+     * The index is left out as positions are not propagated, and the users are hashed regardless of their order.
+     */
+    public long contentHash() {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        List<String> users = new ArrayList<>(assignedUsers);
+        Collections.sort(users);
+
+        updateDigest(digest, name);
+        updateDigest(digest, description);
+        updateDigest(digest, type);
+        updateDigest(digest, dueDate == null ? null : dueDate.toString());
+        updateDigest(digest, Boolean.toString(dueComplete));
+        digest.update(ByteBuffer.allocate(4).putInt(users.size()).array());
+
+        for(String user : users) {
+            updateDigest(digest, user);
+        }
+
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * Checks whether both cards have the same synchronized content
+     */
     public boolean isEquals(Card c) {
         if (c == this) return true;
         if (c == null) return false;
 
-        return index == c.index &&
-                dueComplete == c.dueComplete &&
-                Objects.equals(name, c.name) &&
-                Objects.equals(description, c.description) &&
-                Objects.equals(type, c.type) &&
-                Objects.equals(dueDate, c.dueDate) &&
-                assignedUsers.equals(c.assignedUsers);
+        return contentHash() == c.contentHash();
+    }
+
+    private static void updateDigest(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+
+        // Values are length-prefixed, so they can't run into each other
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
     }
 
     @Override
@@ -0,0 +1,21 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cards that changed in a platform since a point in time
+ */
+public class CardChanges {
+
+    /**
+     * The current state of the cards that were created or updated
+     */
+    public final List<Card> updated = new ArrayList<>();
+
+    /**
+     * The ids of the cards that were removed
+     */
+    public final List<String> removed = new ArrayList<>();
+
+}
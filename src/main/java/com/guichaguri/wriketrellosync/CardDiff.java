@@ -0,0 +1,89 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The fields that changed between two versions of a card
+ */
+public class CardDiff {
+
+    /**
+     * Compares two versions of a card
+     * @param previous The card data the platforms currently have
+     * @param card The new card data
+     */
+    public static CardDiff compute(Card previous, Card card) {
+        List<String> addedUsers = new ArrayList<>();
+        List<String> removedUsers = new ArrayList<>();
+
+        for(String user : card.assignedUsers) {
+            if (!previous.assignedUsers.contains(user)) {
+                // User Added
+                addedUsers.add(user);
+            }
+        }
+
+        for(String user : previous.assignedUsers) {
+            if (!card.assignedUsers.contains(user)) {
+                // User Removed
+                removedUsers.add(user);
+            }
+        }
+
+        return new CardDiff(
+                !Objects.equals(previous.name, card.name),
+                !Objects.equals(previous.description, card.description),
+                !Objects.equals(previous.type, card.type),
+                !Objects.equals(previous.dueDate, card.dueDate),
+                previous.dueComplete != card.dueComplete,
+                addedUsers, removedUsers);
+    }
+
+    // Positions are not synchronized, so the index isn't compared
+    public final boolean name, description, type, dueDate, dueComplete;
+
+    public final List<String> addedUsers, removedUsers;
+
+    private CardDiff(boolean name, boolean description, boolean type, boolean dueDate, boolean dueComplete,
+                     List<String> addedUsers, List<String> removedUsers) {
+        this.name = name;
+        this.description = description;
+        this.type = type;
+        this.dueDate = dueDate;
+        this.dueComplete = dueComplete;
+        this.addedUsers = Collections.unmodifiableList(addedUsers);
+        this.removedUsers = Collections.unmodifiableList(removedUsers);
+    }
+
+    /**
+     * Whether any assigned user was added or removed
+     */
+    public boolean hasUsers() {
+        return !addedUsers.isEmpty() || !removedUsers.isEmpty();
+    }
+
+    /**
+     * Whether nothing changed
+     */
+    public boolean isEmpty() {
+        return !name && !description && !type && !dueDate && !dueComplete && !hasUsers();
+    }
+
+    @Override
+    public String toString() {
+        List<String> fields = new ArrayList<>();
+
+        if (name) fields.add("name");
+        if (description) fields.add("description");
+        if (type) fields.add("type");
+        if (dueDate) fields.add("dueDate");
+        if (dueComplete) fields.add("dueComplete");
+        if (hasUsers()) fields.add("users");
+
+        return String.join(", ", fields);
+    }
+
+}
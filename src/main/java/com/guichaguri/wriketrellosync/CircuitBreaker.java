@@ -0,0 +1,155 @@
+package com.guichaguri.wriketrellosync;
+
+import org.json.JSONObject;
+
+import java.util.function.Supplier;
+
+/**
+ * Stops calling a platform after consecutive failures, so an unhealthy platform fails fast instead of timing out.
+ *
+ * The circuit is closed while the platform is healthy. After {@code failureThreshold} consecutive failures it opens,
+ * rejecting every call for {@code openDuration} milliseconds. Then it becomes half-open, letting a single call through:
+ * the circuit closes if it succeeds and opens again if it fails.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * How long a call waits for the half-open trial call to finish before being attempted again
+     */
+    private static final long TRIAL_WAIT = 1000;
+
+    /**
+     * Creates a breaker from the optional {@code circuitBreaker} section of a platform configuration
+     * @param slug The platform slug
+     * @param config The platform configuration
+     */
+    public static CircuitBreaker fromConfig(String slug, JSONObject config) {
+        JSONObject obj = config.optJSONObject("circuitBreaker");
+        if (obj == null) obj = new JSONObject();
+
+        return new CircuitBreaker(slug, obj.optInt("failureThreshold", 5), obj.optLong("openDuration", 30000));
+    }
+
+    private final String slug;
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialRunning = false;
+
+    /**
+     * @param slug The platform slug, used in log messages
+     * @param failureThreshold How many consecutive failures open the circuit
+     * @param openDuration How long the circuit stays open, in milliseconds
+     */
+    public CircuitBreaker(String slug, int failureThreshold, long openDuration) {
+        this.slug = slug;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Calls the platform if the circuit allows it
+     * @param action The call
+     * @return The result of the call
+     * @throws CircuitOpenException If the circuit is open
+     */
+    public <T> T call(Supplier<T> action) {
+        acquire();
+
+        try {
+            T result = action.get();
+            onSuccess();
+            return result;
+        } catch(RuntimeException ex) {
+            onFailure();
+            throw ex;
+        }
+    }
+
+    public void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an action that might only queue a call for later, such as a delayed update.
+     * It's rejected while the circuit is open and its failures are counted, but as it doesn't necessarily
+     * reach the platform, its success neither resets the failures nor counts as the half-open trial call.
+     * @param action The action
+     * @throws CircuitOpenException If the circuit is open
+     */
+    public void runQueued(Runnable action) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            if (state == State.OPEN && now - openedAt < openDuration) {
+                throw new CircuitOpenException(slug, openedAt + openDuration);
+            }
+        }
+
+        try {
+            action.run();
+        } catch(RuntimeException ex) {
+            onFailure();
+            throw ex;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private synchronized void acquire() {
+        long now = System.currentTimeMillis();
+
+        if (state == State.OPEN) {
+            if (now - openedAt < openDuration) {
+                throw new CircuitOpenException(slug, openedAt + openDuration);
+            }
+
+            state = State.HALF_OPEN;
+            trialRunning = false;
+        }
+
+        if (state == State.HALF_OPEN) {
+            // Only one call checks whether the platform recovered
+            if (trialRunning) throw new CircuitOpenException(slug, now + TRIAL_WAIT);
+
+            trialRunning = true;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println("The platform " + slug + " recovered");
+        }
+
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+    }
+
+    private synchronized void onFailure() {
+        failures++;
+
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                System.out.println("The platform " + slug + " is unavailable, pausing its calls for " + openDuration + "ms");
+            }
+
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trialRunning = false;
+        }
+    }
+
+}
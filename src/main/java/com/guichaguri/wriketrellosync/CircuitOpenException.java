@@ -0,0 +1,20 @@
+package com.guichaguri.wriketrellosync;
+
+/**
+ * Thrown when a platform is not called because its circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * When the platform can be called again, in milliseconds since the epoch
+     */
+    public final long retryAt;
+
+    public CircuitOpenException(String slug, long retryAt) {
+        super("The platform " + slug + " is unavailable");
+        this.retryAt = retryAt;
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Keeps a local copy of the card ordering inside each column.
+ * It allows normalizing the index of a single card without retrieving the whole board again.
+ *
+ * Only the id, column and position of each card are kept, the cards given to it are never modified later.
+ * @param <P> The type of the platform position
+ */
+public class ColumnOrder<P extends Comparable<? super P>> {
+
+    private final Function<Card, P> position;
+
+    // type -> entries sorted by their platform position
+    private final Map<String, List<Entry>> columns = new HashMap<>();
+
+    // card id -> entry
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private boolean loaded = false;
+
+    /**
+     * @param position Reads the platform position of a card
+     */
+    public ColumnOrder(Function<Card, P> position) {
+        this.position = position;
+    }
+
+    /**
+     * Whether the ordering was already loaded from a full card list
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Replaces the ordering with a full card list
+     * @param list All cards inside the configured columns
+     */
+    public synchronized void reset(List<Card> list) {
+        columns.clear();
+        entries.clear();
+
+        for (Card card : list) {
+            Entry entry = new Entry(card);
+            columns.computeIfAbsent(entry.type, t -> new ArrayList<>()).add(entry);
+            entries.put(entry.id, entry);
+        }
+
+        for (List<Entry> column : columns.values()) {
+            Collections.sort(column);
+            renumber(column, 0, column.size());
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Places a card in its column and sets its normalized index.
+     * Only the entries between its previous and current positions are renumbered.
+     * @param card The card that was retrieved from the platform
+     */
+    public synchronized void update(Card card) {
+        Entry previous = entries.remove(card.getId());
+        List<Entry> previousColumn = null;
+        int from = -1;
+
+        if (previous != null) {
+            previousColumn = columns.get(previous.type);
+            from = removeFrom(previousColumn, previous);
+        }
+
+        Entry entry = new Entry(card);
+        List<Entry> column = columns.computeIfAbsent(entry.type, t -> new ArrayList<>());
+        int to = Collections.binarySearch(column, entry);
+        if (to < 0) to = -to - 1;
+
+        column.add(to, entry);
+        entries.put(entry.id, entry);
+
+        if (previousColumn == column && from >= 0) {
+            // Moved inside the same column, the entries after both positions keep their indexes
+            renumber(column, Math.min(from, to), Math.max(from, to) + 1);
+        } else {
+            if (from >= 0) renumber(previousColumn, from, previousColumn.size());
+            renumber(column, to, column.size());
+        }
+
+        card.index = entry.index;
+    }
+
+    /**
+     * Removes a card from the ordering
+     * @param cardId The card id
+     */
+    public synchronized void remove(String cardId) {
+        Entry previous = entries.remove(cardId);
+        if (previous == null) return;
+
+        List<Entry> column = columns.get(previous.type);
+        int from = removeFrom(column, previous);
+
+        if (from >= 0) renumber(column, from, column.size());
+    }
+
+    /**
+     * Removes an entry from a column without renumbering it
+     * @return The position the entry had or -1 if it wasn't in the column
+     */
+    private int removeFrom(List<Entry> column, Entry entry) {
+        if (column == null) return -1;
+
+        // The index matches the position as long as the column is normalized
+        int i = entry.index;
+        if (i < 0 || i >= column.size() || column.get(i) != entry) i = column.indexOf(entry);
+
+        if (i >= 0) column.remove(i);
+        return i;
+    }
+
+    private void renumber(List<Entry> column, int from, int to) {
+        for (int i = from; i < to && i < column.size(); i++) {
+            column.get(i).index = i;
+        }
+    }
+
+    private class Entry implements Comparable<Entry> {
+
+        private final String id;
+        private final String type;
+        private final P position;
+        private int index;
+
+        private Entry(Card card) {
+            this.id = card.getId();
+            this.type = card.type;
+            this.position = ColumnOrder.this.position.apply(card);
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return position.compareTo(o.position);
+        }
+
+    }
+
+}
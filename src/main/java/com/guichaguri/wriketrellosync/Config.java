@@ -1,6 +1,8 @@
 package com.guichaguri.wriketrellosync;
 
+import com.guichaguri.wriketrellosync.http.ApiClient;
 import com.guichaguri.wriketrellosync.trello.TrelloManager;
+import com.guichaguri.wriketrellosync.wrike.TaskUpdateBatch;
 import com.guichaguri.wriketrellosync.wrike.WrikeManager;
 import kong.unirest.HttpResponse;
 import kong.unirest.JsonNode;
@@ -11,7 +13,6 @@ import org.json.JSONTokener;
 
 import java.io.*;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,39 +41,56 @@ public class Config {
 
             if (type.equals("trello")) {
 
-                managers[i] = new TrelloManager(slug,
+                TrelloManager trello = new TrelloManager(slug,
                         obj.getString("apiKey"),
                         obj.getString("apiToken"),
                         obj.getString("board"),
                         loadMapping(obj.getJSONObject("lists")),
-                        loadMapping(obj.getJSONObject("users")));
+                        loadMapping(obj.getJSONObject("users")),
+                        ApiClient.fromConfig(slug, obj, 10, 10));
+
+                if (obj.has("apiBase")) trello.setApiBase(obj.getString("apiBase"));
+                managers[i] = trello;
 
             } else if (type.equals("wrike")) {
 
-                managers[i] = new WrikeManager(slug,
+                WrikeManager wrike = new WrikeManager(slug,
                         obj.getString("apiToken"),
                         obj.getString("folder"),
                         loadMapping(obj.getJSONObject("customStatuses")),
-                        loadMapping(obj.getJSONObject("contacts")));
+                        loadMapping(obj.getJSONObject("contacts")),
+                        ApiClient.fromConfig(slug, obj, 6, 10),
+                        obj.optInt("batchSize", TaskUpdateBatch.MAX_SIZE));
+
+                if (obj.has("apiBase")) wrike.setApiBase(obj.getString("apiBase"));
+                managers[i] = wrike;
 
             } else {
 
                 throw new RuntimeException("Unknown type: " + type);
 
             }
+
+            GuardedSyncManager guarded = new GuardedSyncManager(managers[i], CircuitBreaker.fromConfig(slug, obj));
+
+            // Wrike updates are batched, so they are sent periodically
+            long flushInterval = obj.optLong("batchInterval", type.equals("wrike") ? 1000 : 0);
+            if (flushInterval > 0) guarded.scheduleFlush(flushInterval);
+
+            managers[i] = guarded;
         }
 
         return managers;
     }
 
-    private static Map<String, String> loadMapping(JSONObject mapping) {
+    private static Mapping loadMapping(JSONObject mapping) {
         HashMap<String, String> map = new HashMap<>();
 
         for(String id : mapping.keySet()) {
             map.put(id, mapping.getString(id));
         }
 
-        return map;
+        return new Mapping(map);
     }
 
     /**
@@ -1,39 +1,98 @@
 package com.guichaguri.wriketrellosync;
 
 import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.HistoryStore;
 import com.guichaguri.wriketrellosync.history.HistoryCard;
+import com.guichaguri.wriketrellosync.http.ApiClient;
 import kong.unirest.Unirest;
+import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 /**
  * Looks for differences between local cache and propagates the changes into other platforms
  */
 public class DiffSync {
 
-    private static void processAddedCards(ISyncManager[] managers, ISyncManager manager,
-                                          List<HistoryCard> before, List<Card> after) {
-        String slug = manager.getSlug();
+    /**
+     * How much each synchronization overlaps the previous one, covering clock differences between us and the platforms
+     */
+    private static final Duration CURSOR_OVERLAP = Duration.ofMinutes(1);
+
+    /**
+     * Writes made by the synchronization, remembered for {@code echo.ttl} seconds
+     */
+    static final EchoFilter ECHOES = new EchoFilter(Long.getLong("echo.ttl", 60) * 1000);
+
+    /**
+     * Changes that failed to be propagated and will be attempted again
+     */
+    static final RetryQueue RETRIES = RetryQueue.fromProperties();
+
+    /**
+     * Runs the remote calls of each target platform concurrently, with {@code sync.threads} threads
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Integer.getInteger("sync.threads", 4), r -> {
+                Thread thread = new Thread(r, "sync-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Runs a task for every manager but the origin one at the same time, waiting for all of them to finish.
+     * An error in one of the platforms doesn't affect the others.
+     */
+    private static void fanOut(ISyncManager[] managers, ISyncManager manager, Consumer<ISyncManager> task) {
+        List<Future<?>> futures = new ArrayList<>();
+        Runnable last = null;
 
-        for (Card add : after) {
-            String id = add.getId();
-            boolean found = false;
-
-            for (HistoryCard c : before) {
-                String cId = c.ids.getOrDefault(slug, null);
+        for (ISyncManager manager2 : managers) {
+            if (manager2 == manager) continue;
 
-                if (cId != null && cId.equals(id)) {
-                    found = true;
-                    break;
+            Runnable runnable = () -> {
+                try {
+                    task.accept(manager2);
+                } catch(Exception ex) {
+                    ex.printStackTrace();
                 }
+            };
+
+            if (last != null) futures.add(EXECUTOR.submit(last));
+            last = runnable;
+        }
+
+        // The last target runs in the current thread, which is all we need when there are only two platforms
+        if (last != null) last.run();
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch(ExecutionException ex) {
+                ex.printStackTrace();
             }
+        }
+    }
 
-            if (!found) {
-                // Process the addition
-                before.add(addCard(managers, manager, add));
+    /**
+     * Sends the changes that each platform is still holding
+     */
+    static void flush(ISyncManager[] managers) {
+        for (ISyncManager manager : managers) {
+            try {
+                manager.flush();
+            } catch(Exception ex) {
+                ex.printStackTrace();
             }
         }
     }
@@ -45,131 +104,269 @@ public class DiffSync {
         card.copyFrom(add);
         card.ids.put(manager.getSlug(), add.getId());
 
-        for (ISyncManager manager2 : managers) {
-            if (manager2 != manager) {
-                try {
-                    card.ids.put(manager2.getSlug(), manager2.addCard(add));
-                } catch(Exception ex) {
-                    ex.printStackTrace();
-                }
+        Map<String, String> ids = new ConcurrentHashMap<>();
+
+        fanOut(managers, manager, manager2 -> {
+            String id;
+
+            try {
+                id = manager2.addCard(add);
+            } catch(Exception ex) {
+                RETRIES.add(RetryOperation.add(manager2.getSlug(), manager.getSlug(), add.getId()), ex);
+                return;
             }
-        }
+
+            if (id == null) return;
+
+            ids.put(manager2.getSlug(), id);
+            ECHOES.recordWrite(manager2.getSlug(), id, add);
+        });
+
+        // Merges the ids only after all platforms are done
+        card.ids.putAll(ids);
 
         return card;
     }
 
-    private static void processRemovedCards(ISyncManager[] managers, ISyncManager manager,
-                                            List<HistoryCard> before, List<Card> after) {
-        String slug = manager.getSlug();
-        Iterator<HistoryCard> beforeIt = before.iterator();
+    static void removeCard(ISyncManager[] managers, ISyncManager manager, HistoryCard card) {
+        System.out.println("Card Removed: " + card.name);
+
+        // Remove from all managers
+        fanOut(managers, manager, manager2 -> {
+            String slug2 = manager2.getSlug();
+            String id = card.ids.get(slug2);
+
+            if (id == null) return;
+
+            try {
+                manager2.removeCard(id);
+                ECHOES.recordRemoval(slug2, id);
+            } catch(Exception ex) {
+                RETRIES.add(RetryOperation.remove(slug2, id, manager.getSlug(), card.ids.get(manager.getSlug())), ex);
+            }
+        });
+    }
+
+    static void updateCard(ISyncManager[] managers, ISyncManager manager, Card card, HistoryCard c) {
+        CardDiff diff = CardDiff.compute(c, card);
+        if (diff.isEmpty()) return;
 
-        while (beforeIt.hasNext()) {
-            HistoryCard c = beforeIt.next();
+        System.out.println("Card Updated: " + card.name + " (" + diff + ")");
 
-            String id = c.ids.getOrDefault(slug, null);
-            if (id == null) continue;
+        // The cached card is updated right after, so the values it has now are kept in case a retry is needed
+        Card previous = RetryOperation.capture(c);
 
-            boolean found = false;
+        // Propagate the change to the other managers
+        fanOut(managers, manager, manager2 -> {
+            String slug2 = manager2.getSlug();
+            String id = c.ids.get(slug2);
 
-            for (Card card : after) {
-                if (id.equals(card.getId())) {
-                    found = true;
-                    break;
-                }
+            if (id == null) return;
+
+            // The retry is only created once the update fails
+            Consumer<Exception> onFailure = ex -> RETRIES.add(
+                    RetryOperation.update(slug2, id, manager.getSlug(), card.getId(), previous), ex);
+
+            try {
+                manager2.updateCard(id, card, diff, onFailure);
+                ECHOES.recordWrite(slug2, id, card);
+            } catch(Exception ex) {
+                onFailure.accept(ex);
             }
+        });
+    }
+
+    /**
+     * Compares the current state of a card with the local cache and propagates the difference.
+     * The cache is checked again while holding the card lock, as it might have been changed by another thread.
+     * @param cardId The card id in the origin platform
+     * @param card The current card data or {@code null} if the card doesn't exist anymore
+     * @return The cached card that was changed or {@code null} if nothing changed
+     */
+    static HistoryCard processCard(ISyncManager[] managers, ISyncManager manager, History history,
+                                   String cardId, Card card) {
+        Lock lock = history.lock(manager.getSlug(), cardId);
+
+        try {
+            HistoryCard historyCard = history.findBySlugId(manager.getSlug(), cardId);
+
+            if (card == null) {
+                if (historyCard == null) return null;
+
+                // Card removed
+                removeCard(managers, manager, historyCard);
+                history.remove(historyCard);
+
+            } else if (historyCard == null) {
+
+                // Card added
+                historyCard = addCard(managers, manager, card);
+                history.add(historyCard);
+
+            } else {
+                if (historyCard.isEquals(card)) return null;
+
+                // Card updated
+                updateCard(managers, manager, card, historyCard);
+                history.update(historyCard, card);
 
-            if (!found) {
-                // Process the deletion
-                removeCard(managers, manager, c);
-                beforeIt.remove();
             }
-        }
 
+            return historyCard;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    static void removeCard(ISyncManager[] managers, ISyncManager manager, HistoryCard card) {
-        System.out.println("Card Removed: " + card.name);
+    /**
+     * Retrieves the cards of all managers at the same time
+     */
+    private static List<List<Card>> fetchSnapshots(ISyncManager[] managers) {
+        List<Future<List<Card>>> futures = new ArrayList<>();
 
-        // Remove from all managers
-        for (ISyncManager manager2 : managers) {
-            if (manager2 != manager) {
-                String slug2 = manager2.getSlug();
+        for (ISyncManager manager : managers) {
+            futures.add(EXECUTOR.submit(manager::getCards));
+        }
 
-                String id = card.ids.getOrDefault(slug2, null);
+        List<List<Card>> snapshots = new ArrayList<>();
 
-                if (id != null) {
-                    try {
-                        manager2.removeCard(id);
-                    } catch(Exception ex) {
-                        ex.printStackTrace();
-                    }
-                }
+        try {
+            for (Future<List<Card>> future : futures) {
+                snapshots.add(future.get());
             }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while retrieving the cards", ex);
+        } catch(ExecutionException ex) {
+            for (Future<List<Card>> future : futures) future.cancel(true);
+            throw new RuntimeException("An error occurred while retrieving the cards", ex.getCause());
         }
+
+        return snapshots;
     }
 
-    private static void processUpdatedCards(ISyncManager[] managers, ISyncManager manager,
-                                            List<HistoryCard> history, List<Card> after) {
-        String slug = manager.getSlug();
+    public static void process(ISyncManager[] managers, History history) {
+        Instant start = Instant.now();
+        List<List<Card>> snapshots = fetchSnapshots(managers);
 
-        for (Card card : after) {
-            String id = card.getId();
+        // The snapshots were taken before any change was propagated,
+        // so they are outdated for every card that was changed during this cycle
+        List<HistoryCard> changed = new ArrayList<>();
 
-            for (HistoryCard c : history) {
-                String historyId = c.ids.getOrDefault(slug, null);
+        for (int m = 0; m < managers.length; m++) {
+            ISyncManager manager = managers[m];
+            String slug = manager.getSlug();
+            Set<String> ignoredIds = new HashSet<>();
 
-                if (historyId != null && historyId.equals(id)) {
+            for (HistoryCard c : changed) {
+                String id = c.ids.get(slug);
+                if (id != null) ignoredIds.add(id);
+            }
 
-                    // Check whether both columns are not the same
-                    if (!c.isEquals(card)) {
-                        updateCard(managers, manager, card, c);
-                        c.copyFrom(card);
-                    }
+            Reconciliation diff = Reconciliation.compute(slug, history, snapshots.get(m), ignoredIds);
 
-                    break;
-                }
+            // Add all new cards
+            for (Card card : diff.added) {
+                HistoryCard c = processCard(managers, manager, history, card.getId(), card);
+                if (c != null) changed.add(c);
+            }
+
+            // Remove all missing cards
+            for (HistoryCard card : diff.removed) {
+                HistoryCard c = processCard(managers, manager, history, card.ids.get(slug), null);
+                if (c != null) changed.add(c);
+            }
+
+            // Updates all changed cards
+            for (Card card : diff.updated) {
+                HistoryCard c = processCard(managers, manager, history, card.getId(), card);
+                if (c != null) changed.add(c);
             }
         }
 
+        flush(managers);
+
+        for (ISyncManager manager : managers) {
+            history.setCursor(manager.getSlug(), start.minus(CURSOR_OVERLAP));
+        }
     }
 
-    static void updateCard(ISyncManager[] managers, ISyncManager manager, Card card, HistoryCard c) {
-        System.out.println("Card Updated: " + card.name);
+    /**
+     * Propagates only the changes made since the last synchronization of each platform
+     * @return Whether it succeeded or a full synchronization is needed
+     */
+    public static boolean processDelta(ISyncManager[] managers, History history) {
+        Instant start = Instant.now();
+        List<CardChanges> changes = new ArrayList<>();
 
-        // Propagate the change to the other managers
-        for (ISyncManager manager2 : managers) {
-            if (manager2 != manager) {
+        for (ISyncManager manager : managers) {
+            Instant cursor = history.getCursor(manager.getSlug());
+            CardChanges managerChanges = cursor == null ? null : manager.getChangesSince(cursor);
 
-                String slug2 = manager2.getSlug();
+            if (managerChanges == null) return false;
+            changes.add(managerChanges);
+        }
 
-                if (c.ids.containsKey(slug2)) {
-                    try {
-                        manager2.updateCard(c.ids.get(slug2), card, c);
-                    } catch(Exception ex) {
-                        ex.printStackTrace();
-                    }
-                }
+        // The changes were retrieved before any of them was propagated,
+        // so they are outdated for every card that was changed during this cycle
+        List<HistoryCard> changed = new ArrayList<>();
+
+        for (int m = 0; m < managers.length; m++) {
+            ISyncManager manager = managers[m];
+            Set<String> outdatedIds = new HashSet<>();
 
+            for (HistoryCard c : changed) {
+                String id = c.ids.get(manager.getSlug());
+                if (id != null) outdatedIds.add(id);
+            }
+
+            for (Card card : changes.get(m).updated) {
+                String id = card.getId();
+                if (outdatedIds.contains(id)) card = manager.getCard(id);
+
+                HistoryCard c = processCard(managers, manager, history, id, card);
+                if (c != null) changed.add(c);
+            }
+
+            for (String id : changes.get(m).removed) {
+                Card card = outdatedIds.contains(id) ? manager.getCard(id) : null;
+
+                HistoryCard c = processCard(managers, manager, history, id, card);
+                if (c != null) changed.add(c);
             }
         }
-    }
 
-    public static void process(ISyncManager[] managers, History history) {
+        flush(managers);
+
         for (ISyncManager manager : managers) {
-            List<Card> cards = manager.getCards();
+            history.setCursor(manager.getSlug(), start.minus(CURSOR_OVERLAP));
+        }
 
-            // Add all new cards
-            processAddedCards(managers, manager, history.cards, cards);
+        return true;
+    }
 
-            // Remove all missing cards
-            processRemovedCards(managers, manager, history.cards, cards);
+    /**
+     * Returns the HTTP metrics and the circuit breaker state of every platform, keyed by their slug,
+     * and the amount of changes waiting to be retried
+     */
+    static JSONObject getMetrics(ISyncManager[] managers) {
+        JSONObject obj = new JSONObject();
+        JSONObject circuits = new JSONObject();
 
-            // Updates all changed cards
-            processUpdatedCards(managers, manager, history.cards, cards);
+        for (ISyncManager manager : managers) {
+            if (manager instanceof GuardedSyncManager) {
+                circuits.put(manager.getSlug(), ((GuardedSyncManager) manager).getBreaker().getState().name());
+            }
         }
+
+        obj.put("http", ApiClient.getAllMetrics());
+        obj.put("circuits", circuits);
+        obj.put("pendingRetries", RETRIES.size());
+
+        return obj;
     }
 
-    public static void processTimer(ISyncManager[] managers, History history, File database) {
+    public static void processTimer(ISyncManager[] managers, History history) {
         String timerInterval = System.getProperty("timer.interval", "0");
         int interval = Integer.parseInt(timerInterval);
 
@@ -179,13 +376,26 @@ public class DiffSync {
             return;
         }
 
+        int fullInterval = Integer.parseInt(System.getProperty("timer.full.interval", "0"));
+        long lastFull = System.currentTimeMillis();
         boolean run = true;
 
         while (run) {
             try {
                 Thread.sleep(interval * 60 * 1000);
-                process(managers, history);
-                history.save(database);
+
+                // Between full synchronizations, only the changes are retrieved
+                boolean fullNeeded = System.currentTimeMillis() - lastFull >= fullInterval * 60 * 1000L;
+
+                if (fullNeeded || !processDelta(managers, history)) {
+                    process(managers, history);
+                    lastFull = System.currentTimeMillis();
+                }
+
+                // Compacts the history journal
+                history.save();
+
+                System.out.println("Metrics: " + getMetrics(managers));
             } catch (InterruptedException ex) {
                 // Interruption, we'll stop the loop
                 run = false;
@@ -199,7 +409,6 @@ public class DiffSync {
         Unirest.config().enableCookieManagement(false);
 
         File config = new File(Utils.CONFIG_FILE);
-        File database = new File(Utils.DATABASE_FILE);
 
         ISyncManager[] managers = null;
 
@@ -211,16 +420,16 @@ public class DiffSync {
             managers = Config.wizard(config);
         }
 
-        History history = new History();
+        History history = new History(HistoryStore.fromProperties());
+        history.load();
 
-        if (database.exists()) {
-            history.load(database);
-        }
+        RETRIES.load();
+        RETRIES.start(managers, history);
 
         process(managers, history);
-        history.save(database);
+        history.save();
 
-        processTimer(managers, history, database);
+        processTimer(managers, history);
     }
 
 }
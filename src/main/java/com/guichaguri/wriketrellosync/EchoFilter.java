@@ -0,0 +1,90 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the writes made into each platform, so the webhooks triggered by them can be ignored
+ */
+public class EchoFilter {
+
+    private static final int SWEEP_INTERVAL = 256;
+
+    private final long ttl;
+    private final Map<String, Fingerprint> writes = new ConcurrentHashMap<>();
+    private final AtomicInteger writesSinceSweep = new AtomicInteger();
+
+    /**
+     * @param ttl How long a write is remembered, in milliseconds
+     */
+    public EchoFilter(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Records a card that was created or updated in a platform
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     * @param card The card data that was written
+     */
+    public void recordWrite(String slug, String id, Card card) {
+        record(slug, id, card.contentHash());
+    }
+
+    /**
+     * Records a card that was removed from a platform
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     */
+    public void recordRemoval(String slug, String id) {
+        record(slug, id, null);
+    }
+
+    /**
+     * Checks whether the current state of a card matches a recent write of ours
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     * @param card The card data or {@code null} if the card doesn't exist
+     * @return Whether the change was made by us and can be ignored
+     */
+    public boolean isEcho(String slug, String id, Card card) {
+        Fingerprint fingerprint = writes.get(slug + ":" + id);
+        if (fingerprint == null) return false;
+
+        if (fingerprint.isExpired(ttl)) {
+            writes.remove(slug + ":" + id, fingerprint);
+            return false;
+        }
+
+        return Objects.equals(fingerprint.hash, card == null ? null : card.contentHash());
+    }
+
+    private void record(String slug, String id, Long hash) {
+        if (id == null) return;
+
+        writes.put(slug + ":" + id, new Fingerprint(hash));
+
+        if (writesSinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+            writesSinceSweep.set(0);
+            writes.values().removeIf(f -> f.isExpired(ttl));
+        }
+    }
+
+    private static class Fingerprint {
+
+        private final Long hash;
+        private final long time = System.currentTimeMillis();
+
+        private Fingerprint(Long hash) {
+            this.hash = hash;
+        }
+
+        private boolean isExpired(long ttl) {
+            return System.currentTimeMillis() - time > ttl;
+        }
+
+    }
+
+}
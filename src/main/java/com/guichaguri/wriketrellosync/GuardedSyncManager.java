@@ -0,0 +1,113 @@
+package com.guichaguri.wriketrellosync;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Calls a platform through its circuit breaker
+ */
+public class GuardedSyncManager implements ISyncManager {
+
+    private final ISyncManager manager;
+    private final CircuitBreaker breaker;
+
+    public GuardedSyncManager(ISyncManager manager, CircuitBreaker breaker) {
+        this.manager = manager;
+        this.breaker = breaker;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public String getSlug() {
+        return manager.getSlug();
+    }
+
+    @Override
+    public List<Card> getCards() {
+        return breaker.call(manager::getCards);
+    }
+
+    @Override
+    public CardChanges getChangesSince(Instant since) {
+        return breaker.call(() -> manager.getChangesSince(since));
+    }
+
+    @Override
+    public Card getCard(String cardId) {
+        return breaker.call(() -> manager.getCard(cardId));
+    }
+
+    @Override
+    public String addCard(Card card) {
+        return breaker.call(() -> manager.addCard(card));
+    }
+
+    @Override
+    public void updateCard(String cardId, Card card, CardDiff diff) {
+        runUpdate(() -> manager.updateCard(cardId, card, diff));
+    }
+
+    @Override
+    public void updateCard(String cardId, Card card, CardDiff diff, Consumer<Exception> onFailure) {
+        runUpdate(() -> manager.updateCard(cardId, card, diff, onFailure));
+    }
+
+    private void runUpdate(Runnable update) {
+        if (manager.delaysUpdates()) {
+            // Queuing an update isn't a call to the platform, only its flush tells whether the platform is healthy
+            breaker.runQueued(update);
+        } else {
+            breaker.run(update);
+        }
+    }
+
+    @Override
+    public boolean delaysUpdates() {
+        return manager.delaysUpdates();
+    }
+
+    @Override
+    public void removeCard(String cardId) {
+        breaker.run(() -> manager.removeCard(cardId));
+    }
+
+    @Override
+    public void flush() {
+        breaker.run(manager::flush);
+    }
+
+    /**
+     * Sends the delayed changes of the platform periodically, through the circuit breaker.
+     * While the circuit is open, the changes are kept until it closes again.
+     * @param interval The time between each flush, in milliseconds
+     */
+    public void scheduleFlush(long interval) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "flush-" + getSlug());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch(Exception ex) {
+                ex.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String handleWebhook(String requestBody) {
+        // Webhooks are parsed locally, there's no call to the platform
+        return manager.handleWebhook(requestBody);
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.guichaguri.wriketrellosync;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Represents a project management platform
@@ -17,6 +19,16 @@ public interface ISyncManager {
      */
     List<Card> getCards();
 
+    /**
+     * Retrieves only the cards that changed since the given time.
+     * Platforms that can't track their changes don't need to implement it.
+     * @param since The time of the last synchronization
+     * @return The changes or {@code null} if a full synchronization is needed
+     */
+    default CardChanges getChangesSince(Instant since) {
+        return null;
+    }
+
     /**
      * Retrieves a card
      * @param cardId The card id
@@ -32,11 +44,40 @@ public interface ISyncManager {
     String addCard(Card card);
 
     /**
-     * Updates a card
+     * Updates a card, sending only the changed fields
+     * @param cardId The card id to update
+     * @param card The card data
+     * @param diff The fields that changed
+     */
+    void updateCard(String cardId, Card card, CardDiff diff);
+
+    /**
+     * Updates a card, sending only the changed fields.
+     * Platforms that delay their changes until {@link #flush()} report the failures of the delayed ones
+     * to the callback, as they only happen after this method returns.
      * @param cardId The card id to update
      * @param card The card data
+     * @param diff The fields that changed
+     * @param onFailure Receives the error of an update that failed after being delayed
      */
-    void updateCard(String cardId, Card card, Card previous);
+    default void updateCard(String cardId, Card card, CardDiff diff, Consumer<Exception> onFailure) {
+        updateCard(cardId, card, diff);
+    }
+
+    /**
+     * Whether updates are only queued until {@link #flush()}, without calling the platform right away
+     */
+    default boolean delaysUpdates() {
+        return false;
+    }
+
+    /**
+     * Sends the changes that are still pending.
+     * Platforms that don't delay their changes don't need to implement it.
+     */
+    default void flush() {
+
+    }
 
     /**
      * Removes a card
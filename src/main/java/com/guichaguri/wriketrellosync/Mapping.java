@@ -0,0 +1,64 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable mapping between our names (columns or users) and the ids of a platform.
+ * It can be looked up in both directions in constant time.
+ */
+public final class Mapping {
+
+    private final Map<String, String> ids;
+    private final Map<String, String> names;
+
+    /**
+     * @param ids Our names mapped to the platform ids
+     */
+    public Mapping(Map<String, String> ids) {
+        Map<String, String> names = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            String previous = names.putIfAbsent(entry.getValue(), entry.getKey());
+
+            if (previous != null) {
+                // Only one of them can be found by its id
+                System.out.println("The id " + entry.getValue() + " is mapped to both " + previous
+                        + " and " + entry.getKey() + ", only " + previous + " will be used");
+            }
+        }
+
+        this.ids = Collections.unmodifiableMap(new HashMap<>(ids));
+        this.names = Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * Finds the platform id of a name
+     * @return The id or {@code null} if the name isn't mapped
+     */
+    public String getId(String name) {
+        return name == null ? null : ids.get(name);
+    }
+
+    /**
+     * Finds the name of a platform id
+     * @return The name or {@code null} if the id isn't mapped
+     */
+    public String getName(String id) {
+        return id == null ? null : names.get(id);
+    }
+
+    public boolean hasName(String name) {
+        return name != null && ids.containsKey(name);
+    }
+
+    /**
+     * All mapped names
+     */
+    public Set<String> getNames() {
+        return ids.keySet();
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.guichaguri.wriketrellosync;
+
+import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.HistoryCard;
+
+import java.util.*;
+
+/**
+ * Compares the current state of a platform with the local cache in a single pass,
+ * looking up each card by its indexed platform id
+ */
+public class Reconciliation {
+
+    /**
+     * Computes the added, removed and updated cards of a platform
+     * @param slug The platform slug
+     * @param history The local cache
+     * @param cards The current cards of the platform
+     * @param ignoredIds Platform ids that should be left out of the comparison
+     * @return The reconciliation result
+     */
+    public static Reconciliation compute(String slug, History history, List<Card> cards, Set<String> ignoredIds) {
+        Reconciliation result = new Reconciliation();
+        Set<String> found = new HashSet<>(cards.size() * 2);
+
+        found.addAll(ignoredIds);
+
+        for (Card card : cards) {
+            if (!found.add(card.getId())) continue;
+
+            HistoryCard c = history.findBySlugId(slug, card.getId());
+
+            if (c == null) {
+                result.added.add(card);
+            } else {
+                // Check whether both cards are not the same
+                if (!c.isEquals(card)) {
+                    result.updated.add(card);
+                }
+            }
+        }
+
+        // Only the ids of the platform are kept in memory, the cached cards are streamed
+        history.forEach(slug, (id, c) -> {
+            if (!found.contains(id)) {
+                result.removed.add(c);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Cards that exist in the platform but not in the local cache
+     */
+    public final List<Card> added = new ArrayList<>();
+
+    /**
+     * Cached cards that no longer exist in the platform
+     */
+    public final List<HistoryCard> removed = new ArrayList<>();
+
+    /**
+     * Cards that changed since the last synchronization
+     */
+    public final List<Card> updated = new ArrayList<>();
+
+    private Reconciliation() {
+
+    }
+
+}
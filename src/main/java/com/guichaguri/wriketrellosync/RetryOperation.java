@@ -0,0 +1,135 @@
+package com.guichaguri.wriketrellosync;
+
+import org.json.JSONObject;
+
+/**
+ * A change that couldn't be propagated into a platform and will be attempted again
+ */
+public class RetryOperation {
+
+    public enum Type {
+        ADD, UPDATE, REMOVE
+    }
+
+    public static RetryOperation add(String slug, String originSlug, String originId) {
+        return new RetryOperation(Type.ADD, slug, null, originSlug, originId, null);
+    }
+
+    public static RetryOperation update(String slug, String id, String originSlug, String originId, Card previous) {
+        // The cached card keeps changing, so a copy of it is kept instead
+        return new RetryOperation(Type.UPDATE, slug, id, originSlug, originId, StoredCard.copy(previous));
+    }
+
+    /**
+     * Copies the values of a card, so they can be used later for an update retry
+     */
+    public static Card capture(Card card) {
+        return StoredCard.copy(card);
+    }
+
+    public static RetryOperation remove(String slug, String id, String originSlug, String originId) {
+        return new RetryOperation(Type.REMOVE, slug, id, originSlug, originId, null);
+    }
+
+    public static RetryOperation parse(JSONObject obj) {
+        StoredCard previous = null;
+
+        if (obj.has("previous")) {
+            previous = StoredCard.parse(obj.getJSONObject("previous"));
+        }
+
+        RetryOperation operation = new RetryOperation(Type.valueOf(obj.getString("type")),
+                obj.getString("slug"), obj.optString("id", null),
+                obj.getString("originSlug"), obj.getString("originId"), previous);
+
+        operation.attempts = obj.optInt("attempts");
+        operation.nextAttempt = obj.optLong("nextAttempt");
+        operation.lastError = obj.optString("lastError", null);
+
+        return operation;
+    }
+
+    public final Type type;
+
+    /**
+     * The slug of the platform that should receive the change
+     */
+    public final String slug;
+
+    /**
+     * The card id in the target platform or {@code null} for cards that weren't created yet
+     */
+    public final String id;
+
+    /**
+     * The platform and card id where the change was made, used to find the cached card
+     */
+    public final String originSlug, originId;
+
+    /**
+     * The card data the target platform had before the update
+     */
+    public final Card previous;
+
+    public int attempts = 0;
+    public long nextAttempt = 0;
+    public String lastError;
+
+    private RetryOperation(Type type, String slug, String id, String originSlug, String originId, Card previous) {
+        this.type = type;
+        this.slug = slug;
+        this.id = id;
+        this.originSlug = originSlug;
+        this.originId = originId;
+        this.previous = previous;
+    }
+
+    /**
+     * Whether both operations change the same card in the same platform
+     */
+    public boolean isSameTarget(RetryOperation op) {
+        if (!slug.equals(op.slug)) return false;
+
+        if (id != null && op.id != null) return id.equals(op.id);
+
+        return originSlug.equals(op.originSlug) && originId.equals(op.originId);
+    }
+
+    public JSONObject toJson() {
+        JSONObject obj = new JSONObject();
+
+        obj.put("type", type.name());
+        obj.put("slug", slug);
+        obj.put("id", id);
+        obj.put("originSlug", originSlug);
+        obj.put("originId", originId);
+        obj.put("previous", previous == null ? null : previous.toJson());
+        obj.put("attempts", attempts);
+        obj.put("nextAttempt", nextAttempt);
+        obj.put("lastError", lastError);
+
+        return obj;
+    }
+
+    private static class StoredCard extends Card {
+
+        private static StoredCard parse(JSONObject obj) {
+            StoredCard card = new StoredCard();
+            card.fromJson(obj);
+            return card;
+        }
+
+        private static StoredCard copy(Card card) {
+            StoredCard copy = new StoredCard();
+            copy.copyFrom(card);
+            return copy;
+        }
+
+        @Override
+        public String getId() {
+            return null;
+        }
+
+    }
+
+}
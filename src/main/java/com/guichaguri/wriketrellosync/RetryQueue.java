@@ -0,0 +1,267 @@
+package com.guichaguri.wriketrellosync;
+
+import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.HistoryCard;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the changes that failed to be propagated, attempting them again with an exponential backoff.
+ * Operations that keep failing are moved into a dead letter file, so they can be inspected.
+ *
+ * It's also the backlog of platforms with an open {@link CircuitBreaker}:
+ * their operations are replayed as soon as the circuit lets calls through again.
+ */
+public class RetryQueue {
+
+    /**
+     * Creates the queue based on the {@code retry.attempts}, {@code retry.delay} and {@code retry.max.delay} properties
+     */
+    public static RetryQueue fromProperties() {
+        return new RetryQueue(new File(Utils.RETRY_FILE), new File(Utils.DEAD_LETTER_FILE),
+                Integer.getInteger("retry.attempts", 10),
+                Long.getLong("retry.delay", 10) * 1000,
+                Long.getLong("retry.max.delay", 3600) * 1000);
+    }
+
+    private final File file, deadLetterFile;
+    private final int maxAttempts;
+    private final long baseDelay, maxDelay;
+
+    private final List<RetryOperation> operations = new ArrayList<>();
+
+    /**
+     * @param file The file where the pending operations are persisted
+     * @param deadLetterFile The file where the operations that exceeded the attempts are appended
+     * @param maxAttempts How many times an operation is attempted
+     * @param baseDelay The delay before the first retry, in milliseconds
+     * @param maxDelay The maximum delay between retries, in milliseconds
+     */
+    public RetryQueue(File file, File deadLetterFile, int maxAttempts, long baseDelay, long maxDelay) {
+        this.file = file;
+        this.deadLetterFile = deadLetterFile;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Loads the pending operations
+     */
+    public synchronized void load() throws IOException {
+        if (!file.exists()) return;
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            JSONArray array = new JSONArray(new JSONTokener(reader));
+
+            for (int i = 0; i < array.length(); i++) {
+                operations.add(RetryOperation.parse(array.getJSONObject(i)));
+            }
+        }
+    }
+
+    /**
+     * Queues an operation that just failed
+     * @param operation The operation
+     * @param error The cause of the failure
+     */
+    public void add(RetryOperation operation, Exception error) {
+        System.out.println("Scheduling a retry of " + operation.type + " in " + operation.slug + ": " + error);
+
+        synchronized (this) {
+            // Only the latest change of a card needs to be retried, as the current card data is always sent
+            Iterator<RetryOperation> it = operations.iterator();
+
+            while (it.hasNext()) {
+                RetryOperation pending = it.next();
+                if (!pending.isSameTarget(operation)) continue;
+
+                if (pending.type == operation.type) return;
+                if (operation.type == RetryOperation.Type.REMOVE) it.remove();
+            }
+
+            schedule(operation, error);
+            operations.add(operation);
+            save();
+        }
+    }
+
+    /**
+     * Amount of operations waiting to be retried
+     */
+    public synchronized int size() {
+        return operations.size();
+    }
+
+    /**
+     * Starts attempting the pending operations in the background
+     */
+    public void start(ISyncManager[] managers, History history) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "retry-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                replay(managers, history);
+            } catch(Exception ex) {
+                ex.printStackTrace();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Attempts all operations that are due
+     */
+    public void replay(ISyncManager[] managers, History history) {
+        List<RetryOperation> due = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            for (RetryOperation operation : operations) {
+                if (operation.nextAttempt <= now) due.add(operation);
+            }
+        }
+
+        for (RetryOperation operation : due) {
+            ISyncManager manager = findManager(managers, operation.slug);
+            Exception error = null;
+
+            try {
+                if (manager != null) run(manager, history, operation);
+            } catch(Exception ex) {
+                error = ex;
+            }
+
+            synchronized (this) {
+                // It was replaced by a newer operation while running
+                if (!operations.contains(operation)) continue;
+
+                if (error == null) {
+                    operations.remove(operation);
+                } else if (operation.attempts >= maxAttempts && !(error instanceof CircuitOpenException)) {
+                    System.out.println("Giving up on " + operation.type + " in " + operation.slug + ": " + error);
+                    operations.remove(operation);
+                    schedule(operation, error);
+                    appendDeadLetter(operation);
+                } else {
+                    schedule(operation, error);
+                }
+
+                save();
+            }
+        }
+    }
+
+    private void run(ISyncManager manager, History history, RetryOperation operation) {
+        if (operation.type == RetryOperation.Type.REMOVE) {
+            manager.removeCard(operation.id);
+            DiffSync.ECHOES.recordRemoval(operation.slug, operation.id);
+            return;
+        }
+
+        Lock lock = history.lock(operation.originSlug, operation.originId);
+
+        try {
+            HistoryCard card = history.findBySlugId(operation.originSlug, operation.originId);
+
+            // The card was removed in the meantime
+            if (card == null) return;
+
+            if (operation.type == RetryOperation.Type.ADD) {
+                // The card was already created
+                if (card.ids.containsKey(operation.slug)) return;
+
+                String id = manager.addCard(card);
+                if (id == null) return;
+
+                history.setId(card, operation.slug, id);
+                DiffSync.ECHOES.recordWrite(operation.slug, id, card);
+            } else {
+                // The current data is sent, which also covers any change made after the failure
+                CardDiff diff = CardDiff.compute(operation.previous, card);
+                if (!diff.isEmpty()) {
+                    manager.updateCard(operation.id, card, diff);
+
+                    // Delayed updates are sent right away, so their failure is known
+                    manager.flush();
+                }
+                DiffSync.ECHOES.recordWrite(operation.slug, operation.id, card);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the attempt and calculates when the next one will happen.
+     * The delay doubles on every attempt and is randomized, so failures don't retry in lockstep.
+     */
+    private void schedule(RetryOperation operation, Exception error) {
+        operation.lastError = error.toString();
+
+        if (error instanceof CircuitOpenException) {
+            // The platform wasn't even called, so the operation waits for the circuit without counting an attempt
+            operation.nextAttempt = ((CircuitOpenException) error).retryAt;
+            return;
+        }
+
+        operation.attempts++;
+
+        long delay = Math.min(maxDelay, baseDelay << Math.min(operation.attempts - 1, 30));
+        long jitter = ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+        operation.nextAttempt = System.currentTimeMillis() + delay / 2 + jitter;
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        for (RetryOperation operation : operations) array.put(operation.toJson());
+
+        File temp = new File(file.getPath() + ".tmp");
+
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                array.write(writer);
+            }
+
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void appendDeadLetter(RetryOperation operation) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(deadLetterFile, true), StandardCharsets.UTF_8)) {
+            writer.write(operation.toJson().toString());
+            writer.write('\n');
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static ISyncManager findManager(ISyncManager[] managers, String slug) {
+        for (ISyncManager manager : managers) {
+            if (manager.getSlug().equals(slug)) return manager;
+        }
+        return null;
+    }
+
+}
@@ -8,24 +8,28 @@ public class Utils {
 
     public static final String CONFIG_FILE = "config.json";
     public static final String DATABASE_FILE = "history.json";
+    public static final String BINARY_DATABASE_FILE = "history.bin";
+    public static final String RETRY_FILE = "retry.json";
+    public static final String DEAD_LETTER_FILE = "retry.dead.json";
+
+    /**
+     * Sorts the cards by their platform position and assigns dense indexes inside each column
+     * @param columns The mapped columns, cards from other columns keep their index
+     * @param cards All cards retrieved from the platform
+     */
+    public static void sortAndNormalizeCards(Mapping columns, List<Card> cards) {
+        Collections.sort(cards);
 
-    public static String findKey(Map<String, String> map, String id) {
-        for(String type : map.keySet()) {
-            if (id.equals(map.get(type))) return type;
-        }
-        return null;
-    }
+        Map<String, int[]> counters = new HashMap<>();
 
-    public static void sortAndNormalizeCards(Map<String, String> columns, List<Card> cards) {
-        Collections.sort(cards);
+        for(String type : columns.getNames()) {
+            counters.put(type, new int[1]);
+        }
 
-        for(String type : columns.keySet()) {
-            int i = 0;
-            for(Card c : cards) {
-                if (type == c.type) {
-                    c.index = i++;
-                }
-            }
+        // Each card takes the next index of its own column
+        for(Card c : cards) {
+            int[] counter = counters.get(c.type);
+            if (counter != null) c.index = counter[0]++;
         }
     }
 
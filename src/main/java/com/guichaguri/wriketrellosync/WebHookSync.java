@@ -1,13 +1,16 @@
 package com.guichaguri.wriketrellosync;
 
 import com.guichaguri.wriketrellosync.history.History;
-import com.guichaguri.wriketrellosync.history.HistoryCard;
+import com.guichaguri.wriketrellosync.history.HistoryStore;
 import fi.iki.elonen.NanoHTTPD;
 import kong.unirest.Unirest;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 public class WebHookSync extends NanoHTTPD {
 
@@ -15,7 +18,6 @@ public class WebHookSync extends NanoHTTPD {
         Unirest.config().enableCookieManagement(false);
 
         File config = new File(Utils.CONFIG_FILE);
-        File database = new File(Utils.DATABASE_FILE);
 
         ISyncManager[] managers = null;
 
@@ -27,11 +29,11 @@ public class WebHookSync extends NanoHTTPD {
             managers = Config.wizard(config);
         }
 
-        History history = new History();
+        History history = new History(HistoryStore.fromProperties());
+        history.load();
 
-        if (database.exists()) {
-            history.load(database);
-        }
+        DiffSync.RETRIES.load();
+        DiffSync.RETRIES.start(managers, history);
 
         String hostname = System.getProperty("webhook.hostname");
         String portStr = System.getProperty("webhook.port");
@@ -47,7 +49,13 @@ public class WebHookSync extends NanoHTTPD {
             portStr = "8091";
         }
 
-        WebHookSync sync = new WebHookSync(hostname, Integer.parseInt(portStr), managers, history, database);
+        int workers = Integer.parseInt(System.getProperty("webhook.workers", "4"));
+        int queueSize = Integer.parseInt(System.getProperty("webhook.queue.size", "1000"));
+        String policy = System.getProperty("webhook.queue.policy", "reject");
+        long coalesceWindow = Long.parseLong(System.getProperty("webhook.coalesce.window", "500"));
+
+        WebHookSync sync = new WebHookSync(hostname, Integer.parseInt(portStr), managers, history,
+                workers, queueSize, policy, coalesceWindow);
         sync.start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
 
         if (hostname != null) {
@@ -56,85 +64,157 @@ public class WebHookSync extends NanoHTTPD {
             System.out.println("The server is listening the port " + portStr);
         }
 
-        DiffSync.processTimer(managers, history, database);
+        DiffSync.processTimer(managers, history);
     }
 
+    private static final Response.IStatus SERVICE_UNAVAILABLE = new Response.IStatus() {
+        @Override
+        public String getDescription() {
+            return "503 Service Unavailable";
+        }
+
+        @Override
+        public int getRequestStatus() {
+            return 503;
+        }
+    };
+
     private final History history;
     private final ISyncManager[] managers;
-    private final File database;
+    private final ScheduledThreadPoolExecutor executor;
+    private final int queueSize;
+    private final Consumer<HookTask> fullQueuePolicy;
+    private final long coalesceWindow;
+
+    // Cards that already have a queued webhook, keyed by slug and card id
+    private final ConcurrentHashMap<String, HookTask> pending = new ConcurrentHashMap<>();
 
-    private WebHookSync(String hostname, int port, ISyncManager[] managers, History history, File database) {
+    // Queued webhooks in the order they were received, so the oldest one can be dropped
+    private final Queue<HookTask> queued = new ConcurrentLinkedQueue<>();
+
+    private WebHookSync(String hostname, int port, ISyncManager[] managers, History history,
+                        int workers, int queueSize, String policy, long coalesceWindow) {
         super(hostname, port);
         this.history = history;
         this.managers = managers;
-        this.database = database;
+        this.coalesceWindow = coalesceWindow;
+        this.queueSize = queueSize;
+        this.fullQueuePolicy = getFullQueuePolicy(policy);
+
+        // The webhooks wait for their coalesce window in the queue, so the workers only run the ones that are due
+        this.executor = new ScheduledThreadPoolExecutor(workers);
+        this.executor.setRemoveOnCancelPolicy(true);
     }
 
-    private Response newResponse(Response.Status status) {
-        return newFixedLengthResponse(status, NanoHTTPD.MIME_PLAINTEXT, status.getDescription());
+    /**
+     * Chooses what happens with a webhook when the queue is full
+     * @param policy {@code reject} answers with 503 so the platform retries it later,
+     *               {@code drop-oldest} discards the oldest queued webhook and
+     *               {@code caller-runs} processes the webhook in the request thread
+     */
+    private Consumer<HookTask> getFullQueuePolicy(String policy) {
+        switch (policy) {
+            case "reject":
+                return task -> {
+                    throw new RejectedExecutionException("The webhook queue is full");
+                };
+            case "drop-oldest":
+                return task -> {
+                    HookTask oldest = queued.poll();
+
+                    if (oldest != null) {
+                        if (oldest.future != null) oldest.future.cancel(false);
+
+                        // Allows new webhooks of the dropped card to be queued again
+                        pending.remove(oldest.key, oldest);
+                    }
+
+                    schedule(task);
+                };
+            case "caller-runs":
+                return HookTask::run;
+            default:
+                throw new IllegalArgumentException("Unknown webhook queue policy: " + policy);
+        }
     }
 
-    private void processHook(ISyncManager manager, String cardId) {
-        String slug = manager.getSlug();
-        Card card = manager.getCard(cardId);
-        HistoryCard historyCard = null;
+    /**
+     * The amount of webhooks waiting to be processed
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
 
-        for (HistoryCard hc : history.cards) {
-            String id = hc.ids.get(slug);
+    private Response newResponse(Response.IStatus status) {
+        return newFixedLengthResponse(status, NanoHTTPD.MIME_PLAINTEXT, status.getDescription());
+    }
 
-            if (id != null && id.equals(cardId)) {
-                historyCard = hc;
-                break;
-            }
-        }
+    private void enqueueHook(ISyncManager manager, String cardId) {
+        HookTask task = new HookTask(manager, cardId);
 
-        if (card == null) {
+        // When the card already has a queued webhook, this one is merged into it,
+        // as the queued one will retrieve the latest card state anyway
+        if (pending.putIfAbsent(task.key, task) != null) return;
 
-            if (historyCard != null) {
-                // Card Removed
-                DiffSync.removeCard(managers, manager, historyCard);
+        try {
+            if (getQueueDepth() >= queueSize) {
+                fullQueuePolicy.accept(task);
+            } else {
+                schedule(task);
             }
+        } catch(RejectedExecutionException ex) {
+            pending.remove(task.key, task);
+            throw ex;
+        }
+    }
 
-        } else if (historyCard == null) {
-
-            // Card added
-            DiffSync.addCard(managers, manager, card);
-
-        } else {
+    /**
+     * Queues a webhook to be processed once the rest of its burst had the time to arrive
+     */
+    private void schedule(HookTask task) {
+        queued.add(task);
+        task.future = executor.schedule(task, coalesceWindow, TimeUnit.MILLISECONDS);
+    }
 
-            // Card updated
-            DiffSync.updateCard(managers, manager, card, historyCard);
+    private void processHook(ISyncManager manager, String cardId) {
+        String slug = manager.getSlug();
+        Card card = manager.getCard(cardId);
 
+        if (DiffSync.ECHOES.isEcho(slug, cardId, card)) {
+            // This change was made by ourselves, there's nothing to propagate
+            return;
         }
 
-        try {
-            // Saves the history file with the updated data
-            history.save(database);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        // The changes are journaled by the history as they are made
+        DiffSync.processCard(managers, manager, history, cardId, card);
     }
 
     @Override
     public Response serve(IHTTPSession session) {
         Method method = session.getMethod();
 
+        // Remove any trailing slash from the url
+        String uri = session.getUri().toLowerCase().replace("/", "");
+
+        if (method == Method.GET && uri.equals("metrics")) {
+            return newFixedLengthResponse(Response.Status.OK, "application/json", DiffSync.getMetrics(managers).toString());
+        }
+
         // The method needs to be either HEAD or POST
         // We don't care about anything else
         if (method != Method.HEAD && method != Method.POST) {
             return newResponse(Response.Status.BAD_REQUEST);
         }
 
-        // Remove any trailing slash from the url
-        String uri = session.getUri().toLowerCase().replace("/", "");
-
         for (ISyncManager manager : managers) {
             String slug = manager.getSlug().toLowerCase();
             if (!uri.equals(slug)) continue;
 
             if (method == Method.HEAD) {
                 // The head method is used only for checking whether the server exists
-                return newResponse(Response.Status.OK);
+                Response response = newResponse(Response.Status.OK);
+                response.addHeader("X-Queue-Depth", Integer.toString(getQueueDepth()));
+                return response;
             }
 
             try {
@@ -146,9 +226,13 @@ public class WebHookSync extends NanoHTTPD {
                     return newResponse(Response.Status.BAD_REQUEST);
                 }
 
-                processHook(manager, cardId);
+                // The webhook is processed in the background so the platform doesn't time out
+                enqueueHook(manager, cardId);
 
                 return newResponse(Response.Status.OK);
+            } catch(RejectedExecutionException ex) {
+                System.out.println("The webhook queue is full, rejecting the request");
+                return newResponse(SERVICE_UNAVAILABLE);
             } catch(Exception ex) {
                 ex.printStackTrace();
                 return newResponse(Response.Status.INTERNAL_ERROR);
@@ -159,5 +243,33 @@ public class WebHookSync extends NanoHTTPD {
         return newResponse(Response.Status.NOT_FOUND);
     }
 
+    private class HookTask implements Runnable {
+
+        private final ISyncManager manager;
+        private final String cardId;
+        private final String key;
+        private volatile ScheduledFuture<?> future;
+
+        private HookTask(ISyncManager manager, String cardId) {
+            this.manager = manager;
+            this.cardId = cardId;
+            this.key = manager.getSlug() + ":" + cardId;
+        }
+
+        @Override
+        public void run() {
+            queued.remove(this);
+
+            // From now on, new webhooks of this card are queued again
+            pending.remove(key, this);
+
+            try {
+                processHook(manager, cardId);
+            } catch(Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+
+    }
 
 }
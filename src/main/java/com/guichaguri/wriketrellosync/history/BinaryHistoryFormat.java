@@ -0,0 +1,212 @@
+package com.guichaguri.wriketrellosync.history;
+
+import com.guichaguri.wriketrellosync.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Stores the history snapshot as length-prefixed binary records.
+ *
+ * Values that repeat across cards (column types, usernames and platform slugs) are stored once
+ * in a string table and referenced by their position. The file is memory-mapped for reading.
+ *
+ * The records are streamed into the file as they are encoded. The string table is only complete
+ * after the last record, so it is written at the end, and its offset is filled in the header afterwards.
+ */
+public class BinaryHistoryFormat implements HistoryFormat {
+
+    private static final int MAGIC = 0x57545348; // WTSH
+    private static final int VERSION = 2;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    @Override
+    public String getDefaultFileName() {
+        return Utils.BINARY_DATABASE_FILE;
+    }
+
+    @Override
+    public void read(File file, Consumer<HistoryCard> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("The file is not a binary history");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary history version: " + version);
+            }
+
+            int tableOffset = (int) buffer.getLong();
+            int count = buffer.getInt();
+
+            int records = buffer.position();
+            buffer.position(tableOffset);
+            String[] table = readTable(buffer);
+            buffer.position(records);
+
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+
+                consumer.accept(readCard(buffer, table));
+                buffer.position(end);
+            }
+        }
+    }
+
+    private String[] readTable(ByteBuffer buffer) {
+        String[] table = new String[buffer.getInt()];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = readString(buffer);
+        }
+
+        return table;
+    }
+
+    private HistoryCard readCard(ByteBuffer buffer, String[] table) {
+        HistoryCard card = new HistoryCard();
+
+        card.key = readString(buffer);
+        card.name = readString(buffer);
+        card.description = readString(buffer);
+        card.type = readReference(buffer, table);
+        card.index = buffer.getInt();
+
+        long dueDate = buffer.getLong();
+        card.dueDate = dueDate == NO_DATE ? null : LocalDate.ofEpochDay(dueDate);
+        card.dueComplete = buffer.get() != 0;
+
+        int users = buffer.getInt();
+        card.assignedUsers = new ArrayList<>(users);
+
+        for (int i = 0; i < users; i++) {
+            card.assignedUsers.add(readReference(buffer, table));
+        }
+
+        int ids = buffer.getInt();
+
+        for (int i = 0; i < ids; i++) {
+            String slug = readReference(buffer, table);
+            card.ids.put(slug, readString(buffer));
+        }
+
+        card.setHash(buffer.getLong());
+
+        return card;
+    }
+
+    private String readReference(ByteBuffer buffer, String[] table) {
+        int i = buffer.getInt();
+        return i < 0 ? null : table[i];
+    }
+
+    private String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(File file, Collection<HistoryCard> cards) throws IOException {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        int count = 0;
+
+        try (FileOutputStream stream = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // The table offset and the record count are only known at the end
+            out.writeLong(0);
+            out.writeInt(0);
+
+            for (HistoryCard card : cards) {
+                record.reset();
+
+                synchronized (card) {
+                    writeCard(recordOut, card, table);
+                }
+
+                out.writeInt(record.size());
+                record.writeTo(out);
+                count++;
+            }
+
+            long tableOffset = out.size();
+            out.writeInt(table.size());
+
+            for (String value : table.keySet()) {
+                writeString(out, value);
+            }
+
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            header.putLong(tableOffset).putInt(count).flip();
+            stream.getChannel().write(header, Integer.BYTES * 2);
+
+            stream.getFD().sync();
+        }
+    }
+
+    private void writeCard(DataOutputStream out, HistoryCard card, Map<String, Integer> table) throws IOException {
+        writeString(out, card.key);
+        writeString(out, card.name);
+        writeString(out, card.description);
+        writeReference(out, card.type, table);
+        out.writeInt(card.index);
+        out.writeLong(card.dueDate == null ? NO_DATE : card.dueDate.toEpochDay());
+        out.writeByte(card.dueComplete ? 1 : 0);
+
+        out.writeInt(card.assignedUsers.size());
+
+        for (String user : card.assignedUsers) {
+            writeReference(out, user, table);
+        }
+
+        // The ids map is concurrent, so it is copied before its size is written
+        Map<String, String> ids = new HashMap<>(card.ids);
+        out.writeInt(ids.size());
+
+        for (Map.Entry<String, String> id : ids.entrySet()) {
+            writeReference(out, id.getKey(), table);
+            writeString(out, id.getValue());
+        }
+
+        out.writeLong(card.contentHash());
+    }
+
+    private void writeReference(DataOutputStream out, String value, Map<String, Integer> table) throws IOException {
+        out.writeInt(value == null ? -1 : table.computeIfAbsent(value, v -> table.size()));
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
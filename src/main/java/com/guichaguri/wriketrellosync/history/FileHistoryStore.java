@@ -0,0 +1,296 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Keeps all cards in memory, persisting them into a snapshot file.
+ *
+ * Every change is appended to a journal file as it happens.
+ * The journal is periodically compacted into the snapshot file.
+ */
+public class FileHistoryStore implements HistoryStore {
+
+    private final File file, journalFile, cursorsFile;
+    private final HistoryFormat format;
+    private final int compactThreshold;
+    private FileOutputStream journalStream;
+    private Writer journal;
+    private int journalEntries = 0;
+
+    // card key -> card
+    private final Map<String, HistoryCard> cards = new ConcurrentHashMap<>();
+
+    // card key -> ids that are currently indexed
+    private final Map<String, Map<String, String>> indexedIds = new ConcurrentHashMap<>();
+
+    // slug -> platform id -> card
+    private final Map<String, Map<String, HistoryCard>> index = new ConcurrentHashMap<>();
+
+    // slug -> last synchronization
+    private final Map<String, Instant> cursors = new ConcurrentHashMap<>();
+
+    /**
+     * @param file The snapshot file. The journal is stored next to it.
+     * @param format The snapshot format
+     */
+    public FileHistoryStore(File file, HistoryFormat format) {
+        this(file, format, Integer.getInteger("history.compact.threshold", 1000));
+    }
+
+    /**
+     * @param file The snapshot file. The journal is stored next to it.
+     * @param format The snapshot format
+     * @param compactThreshold The amount of journal entries that triggers a compaction
+     */
+    public FileHistoryStore(File file, HistoryFormat format, int compactThreshold) {
+        this.file = file;
+        this.journalFile = new File(file.getPath() + ".journal");
+        this.cursorsFile = new File(file.getPath() + ".cursors");
+        this.format = format;
+        this.compactThreshold = compactThreshold;
+    }
+
+    @Override
+    public HistoryCard find(String slug, String id) {
+        Map<String, HistoryCard> ids = index.get(slug);
+        return ids == null ? null : ids.get(id);
+    }
+
+    @Override
+    public void upsert(HistoryCard card) {
+        putCard(card);
+
+        JSONObject entry = new JSONObject();
+        entry.put("op", "put");
+        entry.put("card", card.toJson());
+        appendJournal(entry);
+    }
+
+    @Override
+    public void delete(HistoryCard card) {
+        removeCard(card.key);
+
+        JSONObject entry = new JSONObject();
+        entry.put("op", "remove");
+        entry.put("key", card.key);
+        appendJournal(entry);
+    }
+
+    @Override
+    public void forEach(String slug, BiConsumer<String, HistoryCard> consumer) {
+        Map<String, HistoryCard> ids = index.get(slug);
+        if (ids != null) ids.forEach(consumer);
+    }
+
+    @Override
+    public void forEach(Consumer<HistoryCard> consumer) {
+        cards.values().forEach(consumer);
+    }
+
+    @Override
+    public Instant getCursor(String slug) {
+        return cursors.get(slug);
+    }
+
+    @Override
+    public synchronized void setCursor(String slug, Instant cursor) {
+        cursors.put(slug, cursor);
+
+        JSONObject obj = new JSONObject();
+        cursors.forEach((s, c) -> obj.put(s, c.toString()));
+
+        // The cursors are tiny, so they are always fully rewritten
+        File temp = new File(cursorsFile.getPath() + ".tmp");
+
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp);
+                 Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+                obj.write(writer);
+
+                writer.flush();
+                stream.getFD().sync();
+            }
+
+            Files.move(temp.toPath(), cursorsFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void putCard(HistoryCard card) {
+        synchronized (card) {
+            HistoryCard previous = cards.put(card.key, card);
+            Map<String, String> previousIds = indexedIds.put(card.key, new HashMap<>(card.ids));
+
+            if (previousIds != null) {
+                previousIds.forEach((slug, id) -> unindexId(previous, slug, id));
+            }
+
+            card.ids.forEach((slug, id) -> indexId(card, slug, id));
+        }
+    }
+
+    private void removeCard(String key) {
+        HistoryCard card = cards.remove(key);
+        Map<String, String> ids = indexedIds.remove(key);
+
+        if (ids != null) {
+            ids.forEach((slug, id) -> unindexId(card, slug, id));
+        }
+    }
+
+    private void indexId(HistoryCard card, String slug, String id) {
+        index.computeIfAbsent(slug, s -> new ConcurrentHashMap<>()).put(id, card);
+    }
+
+    private void unindexId(HistoryCard card, String slug, String id) {
+        Map<String, HistoryCard> ids = index.get(slug);
+
+        // Only remove the entry if it still belongs to this card
+        if (ids != null) ids.remove(id, card);
+    }
+
+    private synchronized void appendJournal(JSONObject entry) {
+        try {
+            if (journal == null) {
+                openJournal(true);
+            }
+
+            journal.write(entry.toString());
+            journal.write('\n');
+            journal.flush();
+
+            if (++journalEntries >= compactThreshold) {
+                flush();
+            }
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the snapshot and replays the journal on top of it
+     */
+    @Override
+    public synchronized void load() throws IOException {
+        if (file.exists()) {
+            format.read(file, this::putCard);
+        }
+
+        if (journalFile.exists()) {
+            replayJournal();
+        }
+
+        if (cursorsFile.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(cursorsFile), StandardCharsets.UTF_8)) {
+                JSONObject obj = new JSONObject(new JSONTokener(reader));
+
+                for (String slug : obj.keySet()) {
+                    cursors.put(slug, Instant.parse(obj.getString(slug)));
+                }
+            }
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                JSONObject entry;
+
+                try {
+                    entry = new JSONObject(line);
+                } catch(JSONException ex) {
+                    // The last entry might have been partially written before a crash
+                    System.out.println("Ignoring a corrupted history journal entry");
+                    break;
+                }
+
+                journalEntries++;
+
+                if (entry.getString("op").equals("put")) {
+                    putCard(HistoryCard.parse(entry.getJSONObject("card")));
+                } else {
+                    removeCard(entry.getString("key"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of all cards and clears the journal.
+     * The snapshot is written into a temporary file first, so a crash never leaves it incomplete.
+     * The journal is only cleared once the snapshot is on the disk.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        // The journal has to survive a crash in the middle of the compaction
+        if (journal != null) {
+            journal.flush();
+            journalStream.getFD().sync();
+        }
+
+        format.write(temp, cards.values());
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file);
+
+        // Everything in the journal is now part of the snapshot
+        if (journal != null) {
+            journal.close();
+        }
+
+        openJournal(false);
+        journalEntries = 0;
+    }
+
+    private void openJournal(boolean append) throws IOException {
+        journalStream = new FileOutputStream(journalFile, append);
+        journal = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes the rename of a file durable, which is stored in its directory
+     */
+    private static void syncDirectory(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException ex) {
+            // Some systems, such as Windows, can't open directories
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalStream = null;
+        }
+    }
+
+}
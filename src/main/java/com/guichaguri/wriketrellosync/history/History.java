@@ -1,40 +1,160 @@
 package com.guichaguri.wriketrellosync.history;
 
-import org.json.JSONArray;
-import org.json.JSONTokener;
+import com.guichaguri.wriketrellosync.Card;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
+/**
+ * The local cache of all synchronized cards.
+ * It can be safely accessed from multiple threads at the same time.
+ *
+ * Every change is persisted through the {@link HistoryStore} as it happens,
+ * only touching the changed card.
+ */
 public class History {
 
-    public List<HistoryCard> cards = new ArrayList<>();
+    private static final int LOCK_STRIPES = 64;
 
-    public void load(File file) throws IOException {
-        try (FileReader reader = new FileReader(file)) {
-            JSONTokener tokener = new JSONTokener(reader);
-            JSONArray array = new JSONArray(tokener);
+    private final HistoryStore store;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
 
-            for (int i = 0; i < array.length(); i++) {
-                cards.add(HistoryCard.parse(array.getJSONObject(i)));
-            }
+    public History(HistoryStore store) {
+        this.store = store;
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
         }
     }
 
-    public void save(File file) throws IOException {
-        try (FileWriter writer = new FileWriter(file)) {
-            JSONArray array = new JSONArray();
+    /**
+     * Acquires the lock that guards the changes of a card.
+     * Cached cards are locked by their {@link HistoryCard#key}, so a card has the same lock
+     * no matter which platform the change comes from. Cards that aren't cached yet are locked by their platform id.
+     * Cards are spread across a fixed amount of locks, so unrelated cards can be changed at the same time.
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     * @return The acquired lock, which has to be unlocked once the changes are done
+     */
+    public Lock lock(String slug, String id) {
+        while (true) {
+            HistoryCard card = findBySlugId(slug, id);
+            Lock lock = getStripe(card == null ? Objects.hash(slug, id) : card.key.hashCode());
+            lock.lock();
 
-            for (HistoryCard card : cards) {
-                array.put(card.toJson());
+            // The card might have been added or removed before the lock was acquired
+            HistoryCard current = findBySlugId(slug, id);
+
+            if (card == null ? current == null : current != null && card.key.equals(current.key)) {
+                return lock;
             }
 
-            array.write(writer);
+            lock.unlock();
         }
     }
 
+    private Lock getStripe(int hash) {
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Finds a cached card by its platform id
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     * @return The card or {@code null} if it isn't cached
+     */
+    public HistoryCard findBySlugId(String slug, String id) {
+        if (id == null) return null;
+
+        return store.find(slug, id);
+    }
+
+    /**
+     * Iterates over the cached cards of a platform
+     * @param slug The platform slug
+     * @param consumer Receives each platform id and its card
+     */
+    public void forEach(String slug, BiConsumer<String, HistoryCard> consumer) {
+        store.forEach(slug, consumer);
+    }
+
+    /**
+     * Adds a card to the cache, indexing all of its ids
+     */
+    public void add(HistoryCard card) {
+        store.upsert(card);
+    }
+
+    /**
+     * Replaces the data of a cached card with the current card data
+     * @param card The cached card
+     * @param data The current card data
+     */
+    public void update(HistoryCard card, Card data) {
+        card.copyFrom(data);
+        store.upsert(card);
+    }
+
+    /**
+     * Removes a card from the cache
+     */
+    public void remove(HistoryCard card) {
+        store.delete(card);
+    }
+
+    /**
+     * Assigns a platform id to a cached card.
+     * Cached cards should always have their ids changed through this method to keep the index consistent.
+     * @param card The card
+     * @param slug The platform slug
+     * @param id The card id in the platform or {@code null} to remove it
+     */
+    public void setId(HistoryCard card, String slug, String id) {
+        synchronized (card) {
+            if (id == null) {
+                card.ids.remove(slug);
+            } else {
+                card.ids.put(slug, id);
+            }
+        }
+
+        store.upsert(card);
+    }
+
+    /**
+     * Returns the time of the last synchronization of a platform
+     * @param slug The platform slug
+     * @return The time or {@code null} if it was never synchronized
+     */
+    public Instant getCursor(String slug) {
+        return store.getCursor(slug);
+    }
+
+    /**
+     * Stores the time of the last synchronization of a platform
+     * @param slug The platform slug
+     * @param cursor The time
+     */
+    public void setCursor(String slug, Instant cursor) {
+        store.setCursor(slug, cursor);
+    }
+
+    /**
+     * Loads the persisted cards
+     */
+    public void load() throws IOException {
+        store.load();
+    }
+
+    /**
+     * Compacts the persisted changes
+     */
+    public void save() throws IOException {
+        store.flush();
+    }
+
 }
@@ -3,8 +3,15 @@ package com.guichaguri.wriketrellosync.history;
 import com.guichaguri.wriketrellosync.Card;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A cached card. Its fields are guarded by the card's own monitor.
+ */
 public class HistoryCard extends Card {
 
     public static HistoryCard parse(JSONObject obj) {
@@ -13,29 +20,88 @@ public class HistoryCard extends Card {
         return card;
     }
 
-    public HashMap<String, String> ids = new HashMap<>();
+    /**
+     * An unique identifier that doesn't depend on any platform
+     */
+    public String key = UUID.randomUUID().toString();
+
+    public Map<String, String> ids = new ConcurrentHashMap<>();
+
+    /**
+     * The content hash of the data that was last synchronized
+     */
+    private long hash;
 
     @Override
     protected void fromJson(JSONObject obj) {
         JSONObject idsObj = obj.getJSONObject("ids");
-        ids = new HashMap<>();
+        ids = new ConcurrentHashMap<>();
 
         for(String key : idsObj.keySet()) {
             ids.put(key, idsObj.get(key).toString());
         }
 
+        // Older history files don't have a key. It's derived from the platform ids, so the journal entries
+        // written before the file is compacted still refer to the same card when it's loaded again.
+        key = obj.has("key") ? obj.getString("key") : deriveKey(ids);
+
         super.fromJson(obj);
+
+        // Nor a hash
+        hash = obj.has("hash") ? obj.getLong("hash") : super.contentHash();
+    }
+
+    private static String deriveKey(Map<String, String> ids) {
+        StringBuilder name = new StringBuilder();
+
+        for(Map.Entry<String, String> id : new TreeMap<>(ids).entrySet()) {
+            name.append(id.getKey()).append(':').append(id.getValue()).append('\n');
+        }
+
+        return UUID.nameUUIDFromBytes(name.toString().getBytes(StandardCharsets.UTF_8)).toString();
     }
 
     @Override
-    public JSONObject toJson() {
+    public synchronized JSONObject toJson() {
         JSONObject obj = super.toJson();
 
+        obj.put("key", key);
         obj.put("ids", ids);
+        obj.put("hash", hash);
 
         return obj;
     }
 
+    @Override
+    public synchronized void copyFrom(Card card) {
+        super.copyFrom(card);
+        hash = card.contentHash();
+    }
+
+    /**
+     * Recalculates the content hash after the fields were set directly
+     */
+    public synchronized void updateHash() {
+        hash = super.contentHash();
+    }
+
+    /**
+     * Sets the content hash that was stored along with the fields
+     */
+    public synchronized void setHash(long hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    public synchronized long contentHash() {
+        return hash;
+    }
+
+    @Override
+    public synchronized boolean isEquals(Card c) {
+        return super.isEquals(c);
+    }
+
     @Override
     public String getId() {
         return null;
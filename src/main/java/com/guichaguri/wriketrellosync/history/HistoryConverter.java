@@ -0,0 +1,40 @@
+package com.guichaguri.wriketrellosync.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a history snapshot between the JSON and the binary formats
+ */
+public class HistoryConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: HistoryConverter <from> <to>");
+            System.out.println("The format of each file is chosen by its extension (.json or .bin)");
+            return;
+        }
+
+        File from = new File(args[0]);
+        File to = new File(args[1]);
+
+        // Loading through the store also replays any pending journal
+        FileHistoryStore store = new FileHistoryStore(from, getFormat(from), Integer.MAX_VALUE);
+        List<HistoryCard> cards = new ArrayList<>();
+
+        store.load();
+        store.forEach(cards::add);
+        store.close();
+
+        getFormat(to).write(to, cards);
+
+        System.out.println("Converted " + cards.size() + " cards into " + to);
+    }
+
+    private static HistoryFormat getFormat(File file) {
+        return HistoryFormat.fromName(file.getName().endsWith(".bin") ? "binary" : "json");
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.guichaguri.wriketrellosync.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A storage format for the history snapshot
+ */
+public interface HistoryFormat {
+
+    /**
+     * Finds a format by its name
+     * @param name Either {@code json} or {@code binary}
+     */
+    static HistoryFormat fromName(String name) {
+        switch (name) {
+            case "json":
+                return new JsonHistoryFormat();
+            case "binary":
+                return new BinaryHistoryFormat();
+            default:
+                throw new IllegalArgumentException("Unknown history format: " + name);
+        }
+    }
+
+    /**
+     * The file name used when none is specified
+     */
+    String getDefaultFileName();
+
+    /**
+     * Reads all cards from a snapshot
+     * @param file The snapshot file
+     * @param consumer Receives each card as it is read
+     */
+    void read(File file, Consumer<HistoryCard> consumer) throws IOException;
+
+    /**
+     * Writes all cards into a snapshot, only returning once they are on the disk
+     * @param file The snapshot file
+     * @param cards The cards
+     */
+    void write(File file, Collection<HistoryCard> cards) throws IOException;
+
+}
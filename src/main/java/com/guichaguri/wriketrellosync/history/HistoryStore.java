@@ -0,0 +1,91 @@
+package com.guichaguri.wriketrellosync.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persists the cached cards.
+ * Implementations must be safe to use from multiple threads.
+ */
+public interface HistoryStore extends Closeable {
+
+    /**
+     * Creates the store configured through the {@code history.store} system property.
+     * {@code file} (the default) keeps the cards in memory, persisting them in the {@code history.format} format.
+     * {@code h2} keeps them in an embedded database located at {@code history.url}.
+     */
+    static HistoryStore fromProperties() {
+        String type = System.getProperty("history.store", "file");
+
+        switch (type) {
+            case "file":
+                HistoryFormat format = HistoryFormat.fromName(System.getProperty("history.format", "json"));
+                return new FileHistoryStore(new File(format.getDefaultFileName()), format);
+            case "h2":
+                return new SqlHistoryStore(System.getProperty("history.url", "jdbc:h2:./history"));
+            default:
+                throw new IllegalArgumentException("Unknown history store: " + type);
+        }
+    }
+
+    /**
+     * Opens the store, reading any persisted data
+     */
+    void load() throws IOException;
+
+    /**
+     * Finds a card by its platform id
+     * @param slug The platform slug
+     * @param id The card id in the platform
+     * @return The card or {@code null} if it isn't stored
+     */
+    HistoryCard find(String slug, String id);
+
+    /**
+     * Inserts or replaces a card, along with all of its ids
+     */
+    void upsert(HistoryCard card);
+
+    /**
+     * Deletes a card
+     */
+    void delete(HistoryCard card);
+
+    /**
+     * Iterates over all cards that have an id in a platform.
+     * The consumer should not change the store.
+     * @param slug The platform slug
+     * @param consumer Receives each platform id and its card
+     */
+    void forEach(String slug, BiConsumer<String, HistoryCard> consumer);
+
+    /**
+     * Iterates over all cards.
+     * The consumer should not change the store.
+     */
+    void forEach(Consumer<HistoryCard> consumer);
+
+    /**
+     * Returns the time of the last synchronization of a platform
+     * @param slug The platform slug
+     * @return The time or {@code null} if the platform was never synchronized
+     */
+    Instant getCursor(String slug);
+
+    /**
+     * Stores the time of the last synchronization of a platform
+     * @param slug The platform slug
+     * @param cursor The time
+     */
+    void setCursor(String slug, Instant cursor);
+
+    /**
+     * Makes sure every change is stored in its final form
+     */
+    void flush() throws IOException;
+
+}
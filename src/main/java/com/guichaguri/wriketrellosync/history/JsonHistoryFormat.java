@@ -0,0 +1,68 @@
+package com.guichaguri.wriketrellosync.history;
+
+import com.guichaguri.wriketrellosync.Utils;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes the history snapshot as a JSON array, one card at a time.
+ * It never keeps the whole JSON tree in memory.
+ */
+public class JsonHistoryFormat implements HistoryFormat {
+
+    @Override
+    public String getDefaultFileName() {
+        return Utils.DATABASE_FILE;
+    }
+
+    @Override
+    public void read(File file, Consumer<HistoryCard> consumer) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            JSONTokener tokener = new JSONTokener(reader);
+
+            if (tokener.nextClean() != '[') {
+                throw tokener.syntaxError("The history must start with '['");
+            }
+
+            if (tokener.nextClean() == ']') return;
+            tokener.back();
+
+            while (true) {
+                consumer.accept(HistoryCard.parse(new JSONObject(tokener)));
+
+                char c = tokener.nextClean();
+                if (c == ']') return;
+                if (c != ',') throw tokener.syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    @Override
+    public void write(File file, Collection<HistoryCard> cards) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            boolean first = true;
+
+            writer.write('[');
+
+            for (HistoryCard card : cards) {
+                if (!first) writer.write(',');
+                first = false;
+
+                card.toJson().write(writer);
+            }
+
+            writer.write(']');
+
+            writer.flush();
+            stream.getFD().sync();
+        }
+    }
+
+}
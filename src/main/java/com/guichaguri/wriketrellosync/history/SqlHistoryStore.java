@@ -0,0 +1,269 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.*;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the cards in an embedded database, loading them only when needed.
+ * Each card is stored as JSON, and its platform ids are indexed in a separate table.
+ *
+ * A card that is still referenced somewhere is always returned as the same instance,
+ * so changes made from different threads go into the same object instead of overwriting each other.
+ */
+public class SqlHistoryStore implements HistoryStore {
+
+    private final String url;
+    private Connection connection;
+
+    // card key -> the instance in use, which is dropped once nothing references it
+    private final Map<String, CardReference> live = new HashMap<>();
+    private final ReferenceQueue<HistoryCard> collected = new ReferenceQueue<>();
+
+    /**
+     * @param url The JDBC url, such as {@code jdbc:h2:./history}
+     */
+    public SqlHistoryStore(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public synchronized void load() throws IOException {
+        try {
+            connection = DriverManager.getConnection(url);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS cards (" +
+                        "card_key VARCHAR(36) PRIMARY KEY, " +
+                        "data CLOB NOT NULL)");
+                statement.execute("CREATE TABLE IF NOT EXISTS card_ids (" +
+                        "slug VARCHAR(64) NOT NULL, " +
+                        "id VARCHAR(255) NOT NULL, " +
+                        "card_key VARCHAR(36) NOT NULL, " +
+                        "PRIMARY KEY (slug, id))");
+                statement.execute("CREATE INDEX IF NOT EXISTS card_ids_key ON card_ids (card_key)");
+                statement.execute("CREATE TABLE IF NOT EXISTS sync_cursors (" +
+                        "slug VARCHAR(64) PRIMARY KEY, " +
+                        "synced_at TIMESTAMP WITH TIME ZONE NOT NULL)");
+            }
+        } catch(SQLException ex) {
+            throw new IOException("Could not open the history database", ex);
+        }
+    }
+
+    @Override
+    public synchronized HistoryCard find(String slug, String id) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT c.card_key, c.data FROM card_ids i JOIN cards c ON c.card_key = i.card_key " +
+                        "WHERE i.slug = ? AND i.id = ?")) {
+            statement.setString(1, slug);
+            statement.setString(2, id);
+
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? getCard(result.getString(1), result.getString(2)) : null;
+            }
+        } catch(SQLException ex) {
+            throw new RuntimeException("An error occurred while finding a card in the history", ex);
+        }
+    }
+
+    @Override
+    public synchronized void upsert(HistoryCard card) {
+        try {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "MERGE INTO cards (card_key, data) KEY (card_key) VALUES (?, ?)")) {
+                statement.setString(1, card.key);
+                statement.setString(2, card.toJson().toString());
+                statement.executeUpdate();
+            }
+
+            deleteIds(card.key);
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO card_ids (slug, id, card_key) VALUES (?, ?, ?)")) {
+                for (Map.Entry<String, String> id : card.ids.entrySet()) {
+                    statement.setString(1, id.getKey());
+                    statement.setString(2, id.getValue());
+                    statement.setString(3, card.key);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+
+            connection.commit();
+
+            if (getLive(card.key) != card) {
+                live.put(card.key, new CardReference(card, collected));
+            }
+        } catch(SQLException ex) {
+            rollback();
+            throw new RuntimeException("An error occurred while storing a card in the history", ex);
+        } finally {
+            autoCommit();
+        }
+    }
+
+    @Override
+    public synchronized void delete(HistoryCard card) {
+        try {
+            connection.setAutoCommit(false);
+
+            deleteIds(card.key);
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM cards WHERE card_key = ?")) {
+                statement.setString(1, card.key);
+                statement.executeUpdate();
+            }
+
+            connection.commit();
+            live.remove(card.key);
+        } catch(SQLException ex) {
+            rollback();
+            throw new RuntimeException("An error occurred while deleting a card from the history", ex);
+        } finally {
+            autoCommit();
+        }
+    }
+
+    private void deleteIds(String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM card_ids WHERE card_key = ?")) {
+            statement.setString(1, key);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public synchronized void forEach(String slug, BiConsumer<String, HistoryCard> consumer) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT i.id, c.card_key, c.data FROM card_ids i JOIN cards c ON c.card_key = i.card_key " +
+                        "WHERE i.slug = ? ORDER BY i.id")) {
+            statement.setString(1, slug);
+
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(result.getString(1), getCard(result.getString(2), result.getString(3)));
+                }
+            }
+        } catch(SQLException ex) {
+            throw new RuntimeException("An error occurred while reading the history", ex);
+        }
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<HistoryCard> consumer) {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT card_key, data FROM cards ORDER BY card_key")) {
+            while (result.next()) {
+                consumer.accept(getCard(result.getString(1), result.getString(2)));
+            }
+        } catch(SQLException ex) {
+            throw new RuntimeException("An error occurred while reading the history", ex);
+        }
+    }
+
+    @Override
+    public synchronized Instant getCursor(String slug) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT synced_at FROM sync_cursors WHERE slug = ?")) {
+            statement.setString(1, slug);
+
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getTimestamp(1).toInstant() : null;
+            }
+        } catch(SQLException ex) {
+            throw new RuntimeException("An error occurred while reading the history", ex);
+        }
+    }
+
+    @Override
+    public synchronized void setCursor(String slug, Instant cursor) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "MERGE INTO sync_cursors (slug, synced_at) KEY (slug) VALUES (?, ?)")) {
+            statement.setString(1, slug);
+            statement.setTimestamp(2, Timestamp.from(cursor));
+            statement.executeUpdate();
+        } catch(SQLException ex) {
+            throw new RuntimeException("An error occurred while storing the history", ex);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Every change is committed as it happens
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (connection != null) connection.close();
+        } catch(SQLException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Returns the instance in use of a card, only parsing the stored data if there is none
+     */
+    private HistoryCard getCard(String key, String data) {
+        HistoryCard card = getLive(key);
+        if (card != null) return card;
+
+        card = HistoryCard.parse(new JSONObject(data));
+        live.put(key, new CardReference(card, collected));
+
+        return card;
+    }
+
+    private HistoryCard getLive(String key) {
+        CardReference ref;
+
+        // Forgets the cards that were garbage collected
+        while ((ref = (CardReference) collected.poll()) != null) {
+            live.remove(ref.key, ref);
+        }
+
+        ref = live.get(key);
+        return ref == null ? null : ref.get();
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch(SQLException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void autoCommit() {
+        try {
+            connection.setAutoCommit(true);
+        } catch(SQLException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static class CardReference extends WeakReference<HistoryCard> {
+
+        private final String key;
+
+        private CardReference(HistoryCard card, ReferenceQueue<HistoryCard> queue) {
+            super(card, queue);
+            this.key = card.key;
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.guichaguri.wriketrellosync.http;
+
+import kong.unirest.*;
+import kong.unirest.apache.ApacheClient;
+import org.apache.http.pool.PoolStats;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sends the requests of a platform through its own HTTP client, respecting its rate limits.
+ * Requests that are rejected for exceeding the limit are retried after the time requested by the platform.
+ */
+public class ApiClient {
+
+    private static final List<ApiClient> CLIENTS = new CopyOnWriteArrayList<>();
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private final String name;
+    private final UnirestInstance http;
+    private final NetworkConfig network;
+    private final RateLimiter limiter;
+    private final int maxRetries;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    /**
+     * @param name The platform slug, used in log messages and metrics
+     * @param network The HTTP client settings
+     * @param limiter The limiter that paces the requests
+     * @param maxRetries How many times a rate limited request is retried
+     */
+    public ApiClient(String name, NetworkConfig network, RateLimiter limiter, int maxRetries) {
+        this.name = name;
+        this.network = network;
+        this.http = network.createInstance();
+        this.limiter = limiter;
+        this.maxRetries = maxRetries;
+
+        CLIENTS.add(this);
+    }
+
+    /**
+     * Creates a client from the optional {@code network} and {@code rateLimit} sections of a platform configuration
+     * @param name The platform slug
+     * @param config The platform configuration
+     * @param defaultRate The requests per second allowed by the platform
+     * @param defaultBurst The amount of requests allowed at once by the platform
+     */
+    public static ApiClient fromConfig(String name, JSONObject config, double defaultRate, int defaultBurst) {
+        JSONObject rateLimit = config.optJSONObject("rateLimit");
+        if (rateLimit == null) rateLimit = new JSONObject();
+
+        RateLimiter limiter = new RateLimiter(
+                rateLimit.optDouble("requestsPerSecond", defaultRate),
+                rateLimit.optInt("burst", defaultBurst));
+
+        return new ApiClient(name, NetworkConfig.fromJson(config.optJSONObject("network")),
+                limiter, rateLimit.optInt("maxRetries", 5));
+    }
+
+    /**
+     * Returns the metrics of every client, keyed by their platform slug
+     */
+    public static JSONObject getAllMetrics() {
+        JSONObject obj = new JSONObject();
+
+        for (ApiClient client : CLIENTS) {
+            obj.put(client.name, client.getMetrics());
+        }
+
+        return obj;
+    }
+
+    public GetRequest get(String url) {
+        return http.get(url);
+    }
+
+    public HttpRequestWithBody post(String url) {
+        return http.post(url);
+    }
+
+    public HttpRequestWithBody put(String url) {
+        return http.put(url);
+    }
+
+    public HttpRequestWithBody delete(String url) {
+        return http.delete(url);
+    }
+
+    /**
+     * Returns the request and connection pool counters.
+     * {@code saturated} counts the requests that were sent while all connections to the platform were busy,
+     * and {@code available} is the amount of idle connections that can be reused.
+     */
+    public JSONObject getMetrics() {
+        JSONObject obj = new JSONObject();
+
+        obj.put("requests", requests.get());
+        obj.put("rateLimited", rateLimited.get());
+        obj.put("inFlight", inFlight.get());
+        obj.put("peakInFlight", peakInFlight.get());
+        obj.put("saturated", saturated.get());
+        obj.put("maxConnectionsPerRoute", network.maxConnectionsPerRoute);
+
+        Client client = http.config().getClient();
+
+        if (client instanceof ApacheClient) {
+            PoolStats stats = ((ApacheClient) client).getManager().getTotalStats();
+
+            obj.put("leased", stats.getLeased());
+            obj.put("available", stats.getAvailable());
+            obj.put("pending", stats.getPending());
+            obj.put("max", stats.getMax());
+        }
+
+        return obj;
+    }
+
+    /**
+     * Sends a request, waiting for the rate limit when needed
+     * @param request Sends the request. It may be called again when the request is retried
+     * @return The response
+     */
+    public <T> HttpResponse<T> send(Supplier<HttpResponse<T>> request) {
+        int attempt = 0;
+
+        while (true) {
+            try {
+                limiter.acquire();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the " + name + " rate limit", ex);
+            }
+
+            HttpResponse<T> res = execute(request);
+            int status = res.getStatus();
+            Headers headers = res.getHeaders();
+            Long retryAfter = headers == null ? null : parseRetryAfter(headers.getFirst("Retry-After"));
+
+            boolean limited = status == TOO_MANY_REQUESTS || (status == SERVICE_UNAVAILABLE && retryAfter != null);
+
+            if (!limited) {
+                if (headers != null && isExhausted(headers)) {
+                    // The next request would be rejected, so we wait for the bucket to refill
+                    limiter.drain();
+                }
+                return res;
+            }
+
+            rateLimited.incrementAndGet();
+            if (attempt >= maxRetries) return res;
+
+            long delay = retryAfter != null ? retryAfter : DEFAULT_RETRY_DELAY << attempt;
+            attempt++;
+
+            System.out.println(name + " rate limit reached, retrying in " + delay + "ms");
+            limiter.pause(delay);
+        }
+    }
+
+    private <T> HttpResponse<T> execute(Supplier<HttpResponse<T>> request) {
+        int current = inFlight.incrementAndGet();
+
+        requests.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+
+        // Requests above the limit wait for a connection to be released
+        if (current > network.maxConnectionsPerRoute) saturated.incrementAndGet();
+
+        try {
+            return request.get();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Checks the common rate limit headers for an exhausted limit.
+     * Trello sends {@code X-Rate-Limit-Api-Token-Remaining}, other platforms usually send {@code X-RateLimit-Remaining}.
+     */
+    private static boolean isExhausted(Headers headers) {
+        String remaining = headers.getFirst("X-Rate-Limit-Api-Token-Remaining");
+        if (remaining == null || remaining.isEmpty()) remaining = headers.getFirst("X-RateLimit-Remaining");
+        if (remaining == null || remaining.isEmpty()) return false;
+
+        try {
+            return Integer.parseInt(remaining.trim()) <= 0;
+        } catch(NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses the {@code Retry-After} header, which is either an amount of seconds or a date
+     * @return The delay in milliseconds or {@code null} if it's missing
+     */
+    private static Long parseRetryAfter(String value) {
+        if (value == null || value.isEmpty()) return null;
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim())) * 1000;
+        } catch(NumberFormatException ex) {
+            // Not a number, it might be a date
+        }
+
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(), date).toMillis());
+        } catch(DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.guichaguri.wriketrellosync.http;
+
+import kong.unirest.Unirest;
+import kong.unirest.UnirestInstance;
+import org.json.JSONObject;
+
+/**
+ * The HTTP client settings of a platform, loaded from the optional {@code network} section of its configuration
+ */
+public class NetworkConfig {
+
+    /**
+     * Parses the network section, using the defaults for any missing setting
+     * @param obj The network section or {@code null} to use only the defaults
+     */
+    public static NetworkConfig fromJson(JSONObject obj) {
+        if (obj == null) obj = new JSONObject();
+
+        NetworkConfig config = new NetworkConfig();
+
+        config.maxConnections = obj.optInt("maxConnections", config.maxConnections);
+        config.maxConnectionsPerRoute = obj.optInt("maxConnectionsPerRoute", config.maxConnectionsPerRoute);
+        config.connectTimeout = obj.optInt("connectTimeout", config.connectTimeout);
+        config.socketTimeout = obj.optInt("socketTimeout", config.socketTimeout);
+        config.keepAlive = obj.optBoolean("keepAlive", config.keepAlive);
+
+        return config;
+    }
+
+    /**
+     * The maximum amount of open connections
+     */
+    public int maxConnections = 40;
+
+    /**
+     * The maximum amount of open connections to the same host.
+     * All requests of a platform go to the same host, so this is what limits the parallel requests.
+     */
+    public int maxConnectionsPerRoute = 20;
+
+    /**
+     * How long to wait for a connection to be established, in milliseconds
+     */
+    public int connectTimeout = 10000;
+
+    /**
+     * How long to wait for data once connected, in milliseconds
+     */
+    public int socketTimeout = 60000;
+
+    /**
+     * Whether connections are kept open to be reused by the next requests
+     */
+    public boolean keepAlive = true;
+
+    /**
+     * Creates an HTTP client with these settings
+     */
+    public UnirestInstance createInstance() {
+        UnirestInstance instance = Unirest.spawnInstance();
+
+        instance.config()
+                .enableCookieManagement(false)
+                .concurrency(maxConnections, maxConnectionsPerRoute)
+                .connectTimeout(connectTimeout)
+                .socketTimeout(socketTimeout);
+
+        if (!keepAlive) {
+            instance.config().setDefaultHeader("Connection", "close");
+        }
+
+        return instance;
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.guichaguri.wriketrellosync.http;
+
+/**
+ * A token bucket that paces the requests sent to a platform.
+ * Tokens are refilled continuously, so requests are spread evenly instead of being sent in bursts.
+ */
+public class RateLimiter {
+
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    // The nano time has an arbitrary origin, so it's only ever compared with other nano times
+    private long pausedUntil = lastRefill;
+
+    /**
+     * @param requestsPerSecond How many requests can be sent per second
+     * @param burst How many requests can be sent at once after being idle
+     */
+    public RateLimiter(double requestsPerSecond, int burst) {
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("The requests per second must be positive: " + requestsPerSecond);
+        }
+
+        this.capacity = Math.max(1, burst);
+        this.tokensPerNano = requestsPerSecond / 1_000_000_000D;
+        this.tokens = capacity;
+    }
+
+    /**
+     * Waits until a request can be sent
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+
+                if (pausedUntil - now > 0) {
+                    wait = pausedUntil - now;
+                } else if (tokens >= 1) {
+                    tokens--;
+                    return;
+                } else {
+                    wait = (long) Math.ceil((1 - tokens) / tokensPerNano);
+                }
+            }
+
+            Thread.sleep(Math.max(1, wait / 1_000_000));
+        }
+    }
+
+    /**
+     * Stops sending requests for a while, used when the platform asks us to slow down
+     * @param millis How long to wait, in milliseconds
+     */
+    public synchronized void pause(long millis) {
+        long until = System.nanoTime() + millis * 1_000_000;
+
+        if (until - pausedUntil > 0) pausedUntil = until;
+        tokens = 0;
+    }
+
+    /**
+     * Discards the available tokens, used when the platform reports that the limit was reached
+     */
+    public synchronized void drain() {
+        refill(System.nanoTime());
+        tokens = Math.min(tokens, 0);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+}
@@ -5,10 +5,19 @@ import com.guichaguri.wriketrellosync.Card;
 public class TrelloCard extends Card {
 
     public String id;
+    public double pos;
 
     @Override
     public String getId() {
         return id;
     }
 
+    @Override
+    public int compareTo(Card o) {
+        if (o instanceof TrelloCard) {
+            return Double.compare(pos, ((TrelloCard) o).pos);
+        }
+        return super.compareTo(o);
+    }
+
 }
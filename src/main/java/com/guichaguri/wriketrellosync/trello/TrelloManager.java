@@ -1,16 +1,22 @@
 package com.guichaguri.wriketrellosync.trello;
 
 import com.guichaguri.wriketrellosync.Card;
+import com.guichaguri.wriketrellosync.CardDiff;
+import com.guichaguri.wriketrellosync.CardChanges;
+import com.guichaguri.wriketrellosync.ColumnOrder;
 import com.guichaguri.wriketrellosync.ISyncManager;
+import com.guichaguri.wriketrellosync.Mapping;
 import com.guichaguri.wriketrellosync.Utils;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import kong.unirest.GetRequest;
 import kong.unirest.HttpRequestWithBody;
 import kong.unirest.HttpResponse;
 import kong.unirest.JsonNode;
-import kong.unirest.Unirest;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -18,19 +24,35 @@ import java.util.*;
 public class TrelloManager implements ISyncManager {
 
     public static final String API_BASE = "https://api.trello.com/1";
+    private static final String CARD_FIELDS = "id,name,desc,idList,pos,due,dueComplete,idMembers,closed";
+    private static final int PAGE_SIZE = 1000;
+    private static final String CARD_ACTIONS = "createCard,copyCard,updateCard,deleteCard,moveCardToBoard," +
+            "moveCardFromBoard,convertToCardFromCheckItem,addMemberToCard,removeMemberFromCard";
 
     private final String slug, apiKey, apiToken, board;
-    private final Map<String, String> lists;
-    private final Map<String, String> users;
+    private String apiBase = API_BASE;
+    private final Mapping lists;
+    private final Mapping users;
+    private final ColumnOrder<Double> order = new ColumnOrder<>(card -> ((TrelloCard) card).pos);
+    private final ApiClient client;
 
     public TrelloManager(String slug, String apiKey, String apiToken, String board,
-                         Map<String, String> lists, Map<String, String> users) {
+                         Mapping lists, Mapping users, ApiClient client) {
         this.slug = slug;
         this.apiKey = apiKey;
         this.apiToken = apiToken;
         this.board = board;
         this.lists = lists;
         this.users = users;
+        this.client = client;
+    }
+
+    /**
+     * Overrides the API address, such as for going through a proxy
+     * @param apiBase The address that replaces {@link #API_BASE}
+     */
+    public void setApiBase(String apiBase) {
+        this.apiBase = apiBase;
     }
 
     @Override
@@ -40,90 +62,208 @@ public class TrelloManager implements ISyncManager {
 
     @Override
     public List<Card> getCards() {
-        HttpResponse<JsonNode> res = Unirest.get(API_BASE + "/boards/{id}/cards")
+        List<Card> cards = new ArrayList<>();
+        TreeSet<String> ids = new TreeSet<>();
+
+        JSONArray page = fetchCards(null, null);
+        addCards(page, ids, cards);
+
+        if (page.length() >= PAGE_SIZE) {
+            // Trello card ids start with their creation time, so the pages continue from the oldest and newest cards.
+            // The order of a limited page isn't documented, so both directions are followed until nothing new comes.
+            for (String direction : new String[] {"before", "since"}) {
+                int added;
+
+                do {
+                    page = fetchCards(direction, direction.equals("before") ? ids.first() : ids.last());
+                    added = addCards(page, ids, cards);
+                } while (page.length() >= PAGE_SIZE && added > 0);
+            }
+        }
+
+        Utils.sortAndNormalizeCards(lists, cards);
+        order.reset(cards);
+
+        return cards;
+    }
+
+    /**
+     * Retrieves a page of the cards in the board
+     * @param direction Either {@code before} or {@code since}, or {@code null} for the first page
+     * @param cardId The card id the page starts from
+     */
+    private JSONArray fetchCards(String direction, String cardId) {
+        GetRequest req = client.get(apiBase + "/boards/{id}/cards")
                 .routeParam("id", board)
-                .queryString("cards", "visible") // Filter only cards not archived
-                .queryString("filter", "visible")
+                .queryString("filter", "visible") // Filter only cards not archived
+                .queryString("fields", CARD_FIELDS)
+                .queryString("limit", PAGE_SIZE)
                 .queryString("key", apiKey)
-                .queryString("token", apiToken)
-                .asJson();
+                .queryString("token", apiToken);
+
+        if (direction != null)
+            req.queryString(direction, cardId);
+
+        HttpResponse<JsonNode> res = client.send(req::asJson);
 
         if (!res.isSuccess()) {
             throw new RuntimeException("An error occurred while retrieving cards from Trello");
         }
 
-        JSONArray array = res.getBody().getArray();
-        List<Card> cards = new ArrayList<>();
+        return res.getBody().getArray();
+    }
+
+    /**
+     * Parses the cards of a page that weren't retrieved yet
+     * @return The amount of new cards
+     */
+    private int addCards(JSONArray array, Set<String> ids, List<Card> cards) {
+        int added = 0;
 
         for(int i = 0; i < array.length(); i++) {
             JSONObject obj = array.getJSONObject(i);
+            if (!ids.add(obj.getString("id"))) continue;
 
-            String type = Utils.findKey(lists, obj.optString("idList"));
+            added++;
+            TrelloCard card = parseCard(obj);
 
             // We'll ignore cards from unknown lists
-            if (type == null) continue;
+            if (card != null) cards.add(card);
+        }
 
-            TrelloCard card = new TrelloCard();
+        return added;
+    }
 
-            card.id = obj.getString("id");
-            card.name = obj.getString("name");
-            card.description = obj.optString("desc");
-            card.type = type;
-            card.index = obj.optInt("pos");
+    TrelloCard parseCard(JSONObject obj) {
+        String type = lists.getName(obj.optString("idList"));
+        if (type == null) return null;
 
-            if (obj.has("due"))
-                card.dueDate = LocalDate.parse(obj.getString("due"));
+        TrelloCard card = new TrelloCard();
 
-            card.dueComplete = obj.optBoolean("dueComplete", false);
+        card.id = obj.getString("id");
+        card.name = obj.getString("name");
+        card.description = obj.optString("desc");
+        card.type = type;
+        card.pos = obj.optDouble("pos", 0);
+        card.index = (int) card.pos;
 
-            JSONArray members = obj.optJSONArray("idMembers");
-            List<String> assignedUsers = new ArrayList<>();
-            for(int o = 0; o < members.length(); o++) {
-                String userId = Utils.findKey(users, members.getString(o));
-                if (userId != null) assignedUsers.add(userId);
-            }
-            card.assignedUsers = assignedUsers;
+        // Trello stores the time of the due date, but only the day is synchronized
+        if (!obj.isNull("due"))
+            card.dueDate = LocalDate.parse(obj.getString("due").substring(0, 10));
 
-            cards.add(card);
-        }
+        card.dueComplete = obj.optBoolean("dueComplete", false);
 
-        Utils.sortAndNormalizeCards(lists, cards);
+        JSONArray members = obj.optJSONArray("idMembers");
+        List<String> assignedUsers = new ArrayList<>();
+        for(int o = 0; o < members.length(); o++) {
+            String userId = users.getName(members.getString(o));
+            if (userId != null) assignedUsers.add(userId);
+        }
+        card.assignedUsers = assignedUsers;
 
-        return cards;
+        return card;
     }
 
     @Override
     public Card getCard(String cardId) {
-        try {
-            // Retrieve all cards instead so we can have the correct task index calculated
-            List<Card> cards = getCards();
-
-            for(Card card : cards) {
+        if (!order.isLoaded()) {
+            // Retrieve all cards once so we have the ordering of each list cached
+            for(Card card : getCards()) {
                 if (cardId.equals(card.getId())) return card;
             }
 
             // Card Removed
             return null;
+        }
 
-        } catch(Exception ex) {
+        HttpResponse<JsonNode> res = client.send(() -> client.get(apiBase + "/cards/{id}")
+                .routeParam("id", cardId)
+                .queryString("fields", CARD_FIELDS)
+                .queryString("key", apiKey)
+                .queryString("token", apiToken)
+                .asJson());
 
+        if (res.getStatus() == 404) {
             // Card Removed
+            order.remove(cardId);
             return null;
+        }
+
+        if (!res.isSuccess()) {
+            throw new RuntimeException("An error occurred while retrieving a card from Trello: " + res.getStatusText());
+        }
+
+        JSONObject obj = res.getBody().getObject();
+        TrelloCard card = obj.optBoolean("closed", false) ? null : parseCard(obj);
 
+        if (card == null) {
+            // Card archived or moved to an unknown list
+            order.remove(cardId);
+            return null;
         }
+
+        // Calculates the index based on the cached ordering
+        order.update(card);
+
+        return card;
+    }
+
+    @Override
+    public CardChanges getChangesSince(Instant since) {
+        HttpResponse<JsonNode> res = client.send(() -> client.get(apiBase + "/boards/{id}/actions")
+                .routeParam("id", board)
+                .queryString("filter", CARD_ACTIONS)
+                .queryString("since", since.toString())
+                .queryString("fields", "data")
+                .queryString("limit", PAGE_SIZE)
+                .queryString("key", apiKey)
+                .queryString("token", apiToken)
+                .asJson());
+
+        if (!res.isSuccess()) {
+            throw new RuntimeException("An error occurred while retrieving the actions from Trello");
+        }
+
+        JSONArray array = res.getBody().getArray();
+
+        // Too many changes, it's cheaper to retrieve the whole board
+        if (array.length() >= PAGE_SIZE) return null;
+
+        Set<String> ids = new LinkedHashSet<>();
+
+        for(int i = 0; i < array.length(); i++) {
+            JSONObject data = array.getJSONObject(i).optJSONObject("data");
+            JSONObject card = data == null ? null : data.optJSONObject("card");
+
+            if (card != null && card.has("id")) ids.add(card.getString("id"));
+        }
+
+        CardChanges changes = new CardChanges();
+
+        for(String id : ids) {
+            Card card = getCard(id);
+
+            if (card == null) {
+                changes.removed.add(id);
+            } else {
+                changes.updated.add(card);
+            }
+        }
+
+        return changes;
     }
 
     @Override
     public String addCard(Card card) {
-        if (!lists.containsKey(card.type)) {
+        if (!lists.hasName(card.type)) {
             System.out.println("No matching Trello column for " + card.type);
             return null;
         }
 
-        HttpRequestWithBody req = Unirest.post(API_BASE + "/cards")
+        HttpRequestWithBody req = client.post(apiBase + "/cards")
                 .queryString("name", card.name)
                 .queryString("desc", card.description)
-                .queryString("idList", lists.get(card.type))
+                .queryString("idList", lists.getId(card.type))
                 .queryString("pos", "bottom")
                 .queryString("dueComplete", card.dueComplete)
                 .queryString("idMembers", toMemberIds(card.assignedUsers))
@@ -133,7 +273,7 @@ public class TrelloManager implements ISyncManager {
         if (card.dueDate != null)
             req.queryString("due", card.dueDate.format(DateTimeFormatter.BASIC_ISO_DATE));
 
-        HttpResponse<JsonNode> res = req.asJson();
+        HttpResponse<JsonNode> res = client.send(req::asJson);
 
         if (!res.isSuccess()) {
             JsonNode content = res.getBody();
@@ -146,23 +286,50 @@ public class TrelloManager implements ISyncManager {
     }
 
     @Override
-    public void updateCard(String cardId, Card card, Card previous) {
-        HttpRequestWithBody req = Unirest.put(API_BASE + "/cards/{id}")
+    public void updateCard(String cardId, Card card, CardDiff diff) {
+        HttpRequestWithBody req = client.put(apiBase + "/cards/{id}")
                 .routeParam("id", cardId)
-                .queryString("name", card.name)
-                .queryString("desc", card.description)
-                .queryString("dueComplete", card.dueComplete)
-                .queryString("idMembers", toMemberIds(card.assignedUsers))
                 .queryString("key", apiKey)
                 .queryString("token", apiToken);
 
-        if (card.dueDate != null)
-            req.queryString("due", card.dueDate.format(DateTimeFormatter.BASIC_ISO_DATE));
+        boolean changed = false;
+
+        if (diff.name) {
+            req.queryString("name", card.name);
+            changed = true;
+        }
+
+        if (diff.description) {
+            req.queryString("desc", card.description);
+            changed = true;
+        }
+
+        if (diff.dueComplete) {
+            req.queryString("dueComplete", card.dueComplete);
+            changed = true;
+        }
+
+        if (diff.hasUsers()) {
+            req.queryString("idMembers", toMemberIds(card.assignedUsers));
+            changed = true;
+        }
+
+        if (diff.dueDate) {
+            // Trello clears the due date when it receives null
+            req.queryString("due", card.dueDate == null ? "null"
+                    : card.dueDate.format(DateTimeFormatter.BASIC_ISO_DATE));
+            changed = true;
+        }
+
+        if (diff.type && lists.hasName(card.type)) {
+            req.queryString("idList", lists.getId(card.type));
+            changed = true;
+        }
 
-        if (lists.containsKey(card.type))
-            req.queryString("idList", lists.get(card.type));
+        // Columns that aren't mapped in Trello are not sent, so there might be nothing to send
+        if (!changed) return;
 
-        HttpResponse<String> res = req.asString();
+        HttpResponse<String> res = client.send(req::asString);
 
         if (!res.isSuccess()) {
             throw new RuntimeException("An error occurred while updating a Trello card: " + res.getBody());
@@ -171,12 +338,12 @@ public class TrelloManager implements ISyncManager {
 
     @Override
     public void removeCard(String cardId) {
-        HttpResponse<String> res = Unirest.put(API_BASE + "/cards/{id}")
+        HttpResponse<String> res = client.send(() -> client.put(apiBase + "/cards/{id}")
                 .routeParam("id", cardId)
                 .queryString("closed", true)
                 .queryString("key", apiKey)
                 .queryString("token", apiToken)
-                .asString();
+                .asString());
 
         if (!res.isSuccess()) {
             throw new RuntimeException("An error occurred while archiving a Trello card: " + res.getBody());
@@ -209,8 +376,8 @@ public class TrelloManager implements ISyncManager {
         JSONArray array = new JSONArray();
 
         for(String userId : userIds) {
-            if (!users.containsKey(userId)) continue;
-            array.put(users.get(userId));
+            if (!users.hasName(userId)) continue;
+            array.put(users.getId(userId));
         }
 
         return array.toString();
@@ -0,0 +1,146 @@
+package com.guichaguri.wriketrellosync.wrike;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Collects pending task updates, grouping the tasks that receive the exact same fields.
+ * Wrike can apply the same modification to up to 100 tasks in a single request.
+ *
+ * The updates are only sent later, so their failures are reported through the callback of each task.
+ */
+public class TaskUpdateBatch {
+
+    public static final int MAX_SIZE = 100;
+
+    private final int size;
+    private final BiConsumer<List<String>, Map<String, String>> sender;
+
+    // fields -> tasks
+    private final Map<Map<String, String>, List<PendingTask>> pending = new LinkedHashMap<>();
+    private final Set<String> pendingIds = new HashSet<>();
+
+    // Held while sending, so the updates of a task are never sent out of order
+    private final Object sendLock = new Object();
+
+    /**
+     * @param size The maximum amount of tasks per request
+     * @param sender Sends an update of a list of tasks with the given fields
+     */
+    public TaskUpdateBatch(int size, BiConsumer<List<String>, Map<String, String>> sender) {
+        this.size = Math.max(1, Math.min(size, MAX_SIZE));
+        this.sender = sender;
+    }
+
+    /**
+     * Queues a task update
+     * @param taskId The task id
+     * @param fields The fields that will be sent
+     * @param onFailure Receives the error if the update fails to be sent
+     */
+    public void add(String taskId, Map<String, String> fields, Consumer<? super RuntimeException> onFailure) {
+        boolean alreadyPending;
+
+        synchronized (this) {
+            alreadyPending = pendingIds.contains(taskId);
+        }
+
+        if (alreadyPending) {
+            // The previous update has to be sent first, otherwise they could be applied out of order
+            flush();
+        }
+
+        boolean full;
+
+        synchronized (this) {
+            List<PendingTask> tasks = pending.computeIfAbsent(fields, f -> new ArrayList<>());
+            tasks.add(new PendingTask(taskId, onFailure));
+            pendingIds.add(taskId);
+
+            full = tasks.size() >= size;
+        }
+
+        if (full) {
+            sendFull(fields);
+        }
+    }
+
+    private void sendFull(Map<String, String> fields) {
+        synchronized (sendLock) {
+            List<PendingTask> tasks;
+
+            synchronized (this) {
+                tasks = pending.get(fields);
+
+                // It might have been sent by a flush in the meantime
+                if (tasks == null || tasks.size() < size) return;
+
+                pending.remove(fields);
+                for (PendingTask task : tasks) pendingIds.remove(task.id);
+            }
+
+            send(tasks, fields);
+        }
+    }
+
+    /**
+     * Sends all pending updates.
+     * The failed ones are reported to their callbacks and the first error is rethrown.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            Map<Map<String, String>, List<PendingTask>> batches;
+
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+
+                batches = new LinkedHashMap<>(pending);
+                pending.clear();
+                pendingIds.clear();
+            }
+
+            RuntimeException error = null;
+
+            for (Map.Entry<Map<String, String>, List<PendingTask>> batch : batches.entrySet()) {
+                try {
+                    send(batch.getValue(), batch.getKey());
+                } catch (RuntimeException ex) {
+                    // The remaining batches are still sent
+                    if (error == null) error = ex;
+                    else error.addSuppressed(ex);
+                }
+            }
+
+            if (error != null) throw error;
+        }
+    }
+
+    private void send(List<PendingTask> tasks, Map<String, String> fields) {
+        List<String> ids = new ArrayList<>(tasks.size());
+        for (PendingTask task : tasks) ids.add(task.id);
+
+        try {
+            sender.accept(ids, fields);
+        } catch (RuntimeException ex) {
+            for (PendingTask task : tasks) {
+                task.onFailure.accept(ex);
+            }
+
+            throw ex;
+        }
+    }
+
+    private static class PendingTask {
+
+        private final String id;
+        private final Consumer<? super RuntimeException> onFailure;
+
+        private PendingTask(String id, Consumer<? super RuntimeException> onFailure) {
+            this.id = id;
+            this.onFailure = onFailure;
+        }
+
+    }
+
+}
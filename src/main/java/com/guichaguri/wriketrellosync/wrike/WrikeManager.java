@@ -1,34 +1,68 @@
 package com.guichaguri.wriketrellosync.wrike;
 
 import com.guichaguri.wriketrellosync.Card;
+import com.guichaguri.wriketrellosync.CardDiff;
+import com.guichaguri.wriketrellosync.CardChanges;
+import com.guichaguri.wriketrellosync.ColumnOrder;
 import com.guichaguri.wriketrellosync.ISyncManager;
+import com.guichaguri.wriketrellosync.Mapping;
 import com.guichaguri.wriketrellosync.Utils;
+import com.guichaguri.wriketrellosync.http.ApiClient;
 import kong.unirest.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 public class WrikeManager implements ISyncManager {
 
     public static final String API_BASE = "https://www.wrike.com/api/v4";
+    private static final String TASK_FIELDS = "[\"description\",\"responsibleIds\"]";
+    private static final String TASK_PARENT_FIELDS = "[\"superParentIds\"]";
+    private static final int PAGE_SIZE = 1000;
+    private static final DateTimeFormatter DATE_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
 
     private final String slug, apiToken, folder;
-    private final Map<String, String> customStatuses;
-    private final Map<String, String> users;
-
+    private String apiBase = API_BASE;
+    private final Mapping customStatuses;
+    private final Mapping users;
+    private final ColumnOrder<String> order = new ColumnOrder<>(card -> ((WrikeCard) card).priority);
+    private final ApiClient client;
+    private final TaskUpdateBatch updates;
+
+    /**
+     * @param batchSize The maximum amount of task updates sent in a single request.
+     *                  The updates are only sent on {@link #flush()} or once a request is full.
+     */
     public WrikeManager(String slug, String apiToken, String folder,
-                        Map<String, String> customStatuses, Map<String, String> users) {
+                        Mapping customStatuses, Mapping users,
+                        ApiClient client, int batchSize) {
         this.slug = slug;
         this.apiToken = apiToken;
         this.folder = folder;
         this.customStatuses = customStatuses;
         this.users = users;
+        this.client = client;
+        this.updates = new TaskUpdateBatch(batchSize, this::sendUpdate);
+    }
+
+    /**
+     * Overrides the API address, such as for going through a proxy
+     * @param apiBase The address that replaces {@link #API_BASE}
+     */
+    public void setApiBase(String apiBase) {
+        this.apiBase = apiBase;
     }
 
     @Override
@@ -38,86 +72,194 @@ public class WrikeManager implements ISyncManager {
 
     @Override
     public List<Card> getCards() {
-        HttpResponse<JsonNode> res = Unirest.get(API_BASE + "/folders/{id}/tasks")
-                .routeParam("id", folder)
-                .header("Authorization", "Bearer " + apiToken)
-                .asJson();
+        List<Card> cards = fetchTasks(null);
 
-        if (!res.isSuccess()) {
-            throw new RuntimeException("An error occurred while retrieving the tasks from Wrike");
+        Utils.sortAndNormalizeCards(customStatuses, cards);
+        order.reset(cards);
+
+        return cards;
+    }
+
+    /**
+     * Retrieves only the tasks that were updated after the given time.
+     * Deleted tasks are not listed, so a full {@link #getCards()} is still needed to detect them.
+     * @param since The time of the last successful retrieval
+     * @return The updated tasks, with their indexes calculated from the cached ordering
+     */
+    public List<Card> getCardsUpdatedSince(Instant since) {
+        if (!order.isLoaded()) {
+            // The ordering is needed to calculate the indexes
+            getCards();
         }
 
-        JSONArray array = res.getBody().getObject().getJSONArray("data");
-        List<Card> cards = new ArrayList<>();
+        List<Card> cards = fetchTasks(since);
 
-        for(int i = 0; i < array.length(); i++) {
-            JSONObject obj = array.getJSONObject(i);
+        for(Card card : cards) {
+            order.update(card);
+        }
+
+        return cards;
+    }
+
+    @Override
+    public CardChanges getChangesSince(Instant since) {
+        CardChanges changes = new CardChanges();
+
+        // Deleted tasks are only detected by the full synchronization
+        changes.updated.addAll(getCardsUpdatedSince(since));
+
+        return changes;
+    }
+
+    private List<Card> fetchTasks(Instant updatedSince) {
+        List<Card> cards = new ArrayList<>();
+        String pageToken = null;
+        int i = 0;
 
-            String type = Utils.findKey(customStatuses, obj.optString("customStatusId"));
+        do {
+            GetRequest req = client.get(apiBase + "/folders/{id}/tasks")
+                    .routeParam("id", folder)
+                    .queryString("fields", TASK_FIELDS)
+                    .queryString("pageSize", PAGE_SIZE)
+                    .header("Authorization", "Bearer " + apiToken);
 
-            // We'll ignore cards from unknown lists
-            if (type == null) continue;
+            if (pageToken != null)
+                req.queryString("nextPageToken", pageToken);
 
-            WrikeCard card = new WrikeCard();
+            if (updatedSince != null)
+                req.queryString("updatedDate", toDateRange(updatedSince));
 
-            card.id = obj.getString("id");
-            card.name = obj.getString("title");
-            card.description = obj.optString("description");
-            card.type = type;
-            card.priority = obj.optString("priority");
-            card.index = i;
+            HttpResponse<JsonNode> res = client.send(req::asJson);
 
-            JSONObject dates = obj.optJSONObject("dates");
-            if (dates != null) {
-                card.dueDate = LocalDate.parse(dates.getString("due"));
+            if (!res.isSuccess()) {
+                throw new RuntimeException("An error occurred while retrieving the tasks from Wrike");
             }
 
-            card.dueComplete = obj.optString("status", "Active").equals("Completed");
+            JSONObject body = res.getBody().getObject();
+            JSONArray array = body.getJSONArray("data");
 
-            JSONArray responsible = obj.optJSONArray("responsibleIds");
-            List<String> assignedUsers = new ArrayList<>();
-            for(int o = 0; o < responsible.length(); o++) {
-                String userId = Utils.findKey(users, responsible.getString(o));
-                if (userId != null) assignedUsers.add(userId);
+            for(int o = 0; o < array.length(); o++, i++) {
+                WrikeCard card = parseTask(array.getJSONObject(o));
+
+                // We'll ignore cards from unknown lists
+                if (card == null) continue;
+
+                card.index = i;
+                cards.add(card);
             }
-            card.assignedUsers = assignedUsers;
 
-            cards.add(card);
+            pageToken = body.optString("nextPageToken", null);
+        } while (pageToken != null);
+
+        return cards;
+    }
+
+    private WrikeCard parseTask(JSONObject obj) {
+        String type = customStatuses.getName(obj.optString("customStatusId"));
+        if (type == null) return null;
+
+        WrikeCard card = new WrikeCard();
+
+        card.id = obj.getString("id");
+        card.name = obj.getString("title");
+        card.description = obj.optString("description");
+        card.type = type;
+        card.priority = obj.optString("priority");
+
+        JSONObject dates = obj.optJSONObject("dates");
+        // Tasks without dates are returned as the Backlog type, which has no due date.
+        // The due date might come with the time of the day, but only the day is synchronized.
+        if (dates != null && dates.has("due")) {
+            card.dueDate = LocalDate.parse(dates.getString("due").substring(0, 10));
         }
 
-        Utils.sortAndNormalizeCards(customStatuses, cards);
+        card.dueComplete = obj.optString("status", "Active").equals("Completed");
 
-        return cards;
+        JSONArray responsible = obj.optJSONArray("responsibleIds");
+        List<String> assignedUsers = new ArrayList<>();
+        for(int o = 0; o < responsible.length(); o++) {
+            String userId = users.getName(responsible.getString(o));
+            if (userId != null) assignedUsers.add(userId);
+        }
+        card.assignedUsers = assignedUsers;
+
+        return card;
     }
 
     @Override
     public Card getCard(String cardId) {
-        try {
-            // Retrieve all cards instead so we can have the correct task index calculated
-            List<Card> cards = getCards();
-
-            for(Card card : cards) {
+        if (!order.isLoaded()) {
+            // Retrieve all tasks once so we have the ordering of each status cached
+            for(Card card : getCards()) {
                 if (cardId.equals(card.getId())) return card;
             }
 
             // Task Removed
             return null;
+        }
 
-        } catch(Exception ex) {
+        HttpResponse<JsonNode> res = client.send(() -> client.get(apiBase + "/tasks/{id}")
+                .routeParam("id", cardId)
+                .queryString("fields", TASK_PARENT_FIELDS)
+                .header("Authorization", "Bearer " + apiToken)
+                .asJson());
 
+        if (res.getStatus() == 404) {
             // Task Removed
+            order.remove(cardId);
+            return null;
+        }
+
+        if (!res.isSuccess()) {
+            throw new RuntimeException("An error occurred while retrieving a task from Wrike: " + res.getStatusText());
+        }
+
+        JSONArray data = res.getBody().getObject().getJSONArray("data");
+        JSONObject obj = data.isEmpty() ? null : data.getJSONObject(0);
+        WrikeCard card = null;
+
+        // Deleted tasks are kept in the recycle bin and moved tasks are no longer inside the folder
+        if (obj != null && !obj.optString("status").equals("Deleted") && isInFolder(obj)) {
+            card = parseTask(obj);
+        }
+
+        if (card == null) {
+            // Task removed or moved to an unknown status
+            order.remove(cardId);
             return null;
+        }
+
+        // Calculates the index based on the cached ordering
+        order.update(card);
+
+        return card;
+    }
 
+    /**
+     * Checks whether a task is listed by {@link #getCards()}.
+     * The folder listing includes the tasks of its subfolders, so every ancestor is checked.
+     */
+    private boolean isInFolder(JSONObject task) {
+        return contains(task.optJSONArray("parentIds"), folder) || contains(task.optJSONArray("superParentIds"), folder);
+    }
+
+    private static boolean contains(JSONArray array, String value) {
+        if (array == null) return false;
+
+        for(int i = 0; i < array.length(); i++) {
+            if (value.equals(array.getString(i))) return true;
         }
+
+        return false;
     }
 
     @Override
     public String addCard(Card card) {
-        MultipartBody req = Unirest.post(API_BASE + "/folders/{id}/tasks")
+        MultipartBody req = client.post(apiBase + "/folders/{id}/tasks")
                 .routeParam("id", folder)
                 .field("title", card.name)
                 .field("description", card.description)
-                .field("customStatus", customStatuses.getOrDefault(card.type, ""))
+                .field("customStatus", Objects.toString(customStatuses.getId(card.type), ""))
                 .header("Authorization", "Bearer " + apiToken);
 
         if (card.dueComplete)
@@ -128,7 +270,7 @@ public class WrikeManager implements ISyncManager {
 
         req.field("addResponsibles", toResponsibleIds(card.assignedUsers));
 
-        HttpResponse<JsonNode> res = req.asJson();
+        HttpResponse<JsonNode> res = client.send(req::asJson);
 
         if (!res.isSuccess()) {
             throw new RuntimeException("An error occurred while adding a card");
@@ -141,10 +283,10 @@ public class WrikeManager implements ISyncManager {
 
     @Override
     public void removeCard(String cardId) {
-        HttpResponse<String> res = Unirest.delete(API_BASE + "/tasks/{id}")
+        HttpResponse<String> res = client.send(() -> client.delete(apiBase + "/tasks/{id}")
                 .routeParam("id", cardId)
                 .header("Authorization", "Bearer " + apiToken)
-                .asString();
+                .asString());
 
         if (!res.isSuccess()) {
             throw new RuntimeException("An error occurred while removing a card: " + res.getBody());
@@ -152,44 +294,70 @@ public class WrikeManager implements ISyncManager {
     }
 
     @Override
-    public void updateCard(String cardId, Card card, Card previous) {
-        MultipartBody req = Unirest.put(API_BASE + "/tasks/{id}")
-                .routeParam("id", cardId)
-                .field("title", card.name)
-                .field("description", card.description)
-                .field("customStatus", customStatuses.getOrDefault(card.type, ""))
-                .header("Authorization", "Bearer " + apiToken);
+    public void updateCard(String cardId, Card card, CardDiff diff) {
+        // Without a callback, the failure is only thrown by flush()
+        updateCard(cardId, card, diff, ex -> {});
+    }
 
-        if (card.dueComplete)
-            req.field("status", "Completed");
+    @Override
+    public void updateCard(String cardId, Card card, CardDiff diff, Consumer<Exception> onFailure) {
+        // The fields are kept in a stable order, so equal updates are grouped in the same batch
+        Map<String, String> fields = new LinkedHashMap<>();
 
-        if (card.dueDate != null)
-            req.field("dates", toDatesObject(card.dueDate));
+        if (diff.name)
+            fields.put("title", card.name);
 
-        List<String> addedUsers = new ArrayList<>();
-        List<String> removedUsers = new ArrayList<>();
+        if (diff.description)
+            fields.put("description", card.description);
 
-        for(String user : card.assignedUsers) {
-            if (!previous.assignedUsers.contains(user)) {
-                // User Added
-                addedUsers.add(user);
-            }
-        }
+        if (diff.type && customStatuses.hasName(card.type))
+            fields.put("customStatus", customStatuses.getId(card.type));
 
-        for(String user : previous.assignedUsers) {
-            if (!card.assignedUsers.contains(user)) {
-                // User Removed
-                removedUsers.add(user);
-            }
-        }
+        if (diff.dueComplete)
+            fields.put("status", card.dueComplete ? "Completed" : "Active");
+
+        // A removed due date is sent as well, clearing the dates
+        if (diff.dueDate)
+            fields.put("dates", toDatesObject(card.dueDate));
+
+        if (!diff.addedUsers.isEmpty())
+            fields.put("addResponsibles", toResponsibleIds(diff.addedUsers));
+
+        if (!diff.removedUsers.isEmpty())
+            fields.put("removeResponsibles", toResponsibleIds(diff.removedUsers));
+
+        // Statuses that aren't mapped in Wrike are not sent, so there might be nothing to send
+        if (fields.isEmpty()) return;
+
+        updates.add(cardId, fields, onFailure);
+    }
+
+    @Override
+    public boolean delaysUpdates() {
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        updates.flush();
+    }
+
+    private void sendUpdate(List<String> taskIds, Map<String, String> fields) {
+        HttpRequestWithBody req = client.put(apiBase + "/tasks/{ids}")
+                .routeParam("ids", String.join(",", taskIds))
+                .header("Authorization", "Bearer " + apiToken);
 
-        req.field("addResponsibles", toResponsibleIds(addedUsers));
-        req.field("removeResponsibles", toResponsibleIds(removedUsers));
+        MultipartBody body = null;
 
-        HttpResponse<String> res = req.asString();
+        for(Map.Entry<String, String> field : fields.entrySet()) {
+            body = body == null ? req.field(field.getKey(), field.getValue()) : body.field(field.getKey(), field.getValue());
+        }
+
+        MultipartBody multipart = body;
+        HttpResponse<String> res = client.send(() -> multipart == null ? req.asString() : multipart.asString());
 
         if (!res.isSuccess()) {
-            throw new RuntimeException("An error occurred while updating a card: " + res.getBody());
+            throw new RuntimeException("An error occurred while updating " + taskIds.size() + " card(s): " + res.getBody());
         }
     }
 
@@ -204,10 +372,23 @@ public class WrikeManager implements ISyncManager {
         return obj.optString("taskId", null);
     }
 
+    private String toDateRange(Instant start) {
+        JSONObject obj = new JSONObject();
+        obj.put("start", DATE_TIME_FORMAT.format(start));
+        return obj.toString();
+    }
+
     private String toDatesObject(LocalDate due) {
         JSONObject obj = new JSONObject();
-        obj.put("due", due.format(DateTimeFormatter.ISO_DATE));
-        obj.put("type", "Milestone");
+
+        if (due == null) {
+            // Backlog tasks have no dates
+            obj.put("type", "Backlog");
+        } else {
+            obj.put("due", due.format(DateTimeFormatter.ISO_DATE));
+            obj.put("type", "Milestone");
+        }
+
         return obj.toString();
     }
 
@@ -215,8 +396,8 @@ public class WrikeManager implements ISyncManager {
         JSONArray array = new JSONArray();
 
         for(String userId : userIds) {
-            if (!users.containsKey(userId)) continue;
-            array.put(users.get(userId));
+            if (!users.hasName(userId)) continue;
+            array.put(users.getId(userId));
         }
 
         return array.toString();
@@ -0,0 +1,157 @@
+package com.guichaguri.wriketrellosync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static void callFailing(CircuitBreaker breaker) {
+        try {
+            breaker.run(() -> {
+                throw new IllegalStateException("Unavailable");
+            });
+        } catch(IllegalStateException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+
+        callFailing(breaker);
+        callFailing(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // A success resets the count
+        breaker.run(() -> {});
+        callFailing(breaker);
+        callFailing(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        callFailing(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testRejectsWhileOpen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+        callFailing(breaker);
+
+        boolean[] called = {false};
+
+        try {
+            breaker.run(() -> called[0] = true);
+            fail("The call should be rejected");
+        } catch(CircuitOpenException ex) {
+            assertTrue(ex.retryAt > System.currentTimeMillis());
+        }
+
+        assertFalse(called[0]);
+    }
+
+    @Test
+    public void testHalfOpen() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        callFailing(breaker);
+        Thread.sleep(100);
+
+        // The trial call fails, so it opens again
+        callFailing(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+
+        // The trial call succeeds, so it closes
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testSingleTrialCall() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        callFailing(breaker);
+        Thread.sleep(100);
+
+        // Another call made while the trial call runs is rejected
+        String result = breaker.call(() -> {
+            try {
+                breaker.call(() -> "nested");
+                return "not rejected";
+            } catch(CircuitOpenException ex) {
+                return "rejected";
+            }
+        });
+
+        assertEquals("rejected", result);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testQueuedCallsDontResetFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+
+        for (int i = 0; i < 3; i++) {
+            breaker.runQueued(() -> {});
+            breaker.runQueued(() -> {});
+            callFailing(breaker);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            breaker.runQueued(() -> {});
+            fail("The queued call should be rejected");
+        } catch(CircuitOpenException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testQueuedCallIsNotTheTrialCall() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        callFailing(breaker);
+        Thread.sleep(100);
+
+        // Queuing is allowed once the circuit is no longer open, but it doesn't close it
+        breaker.runQueued(() -> {});
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedFlushesOpenTheCircuit() {
+        FakeSyncManager platform = new FakeSyncManager("test") {
+            @Override
+            public boolean delaysUpdates() {
+                return true;
+            }
+
+            @Override
+            public void flush() {
+                throw new IllegalStateException("Unavailable");
+            }
+        };
+
+        TestCard card = platform.put(new TestCard("c1", "Card", "todo"));
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+        GuardedSyncManager guarded = new GuardedSyncManager(platform, breaker);
+
+        for (int i = 0; i < 3; i++) {
+            TestCard renamed = card.copy();
+            renamed.name = "Renamed " + i;
+            guarded.updateCard(card.id, renamed, CardDiff.compute(card, renamed), ex -> {});
+
+            try {
+                guarded.flush();
+            } catch(IllegalStateException ex) {
+                // Expected
+            }
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+}
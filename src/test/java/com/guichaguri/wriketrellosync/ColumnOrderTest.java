@@ -0,0 +1,93 @@
+package com.guichaguri.wriketrellosync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ColumnOrderTest {
+
+    // The name of the test cards is used as their platform position
+    private final ColumnOrder<String> order = new ColumnOrder<>(card -> card.name);
+    private List<Card> board;
+
+    private static TestCard card(String id, String position, String type, int index) {
+        TestCard card = new TestCard(id, position, type);
+        card.index = index;
+        return card;
+    }
+
+    @Before
+    public void setUp() {
+        board = new ArrayList<>(Arrays.asList(
+                card("a", "b", "todo", 0),
+                card("b", "d", "todo", 1),
+                card("c", "f", "todo", 2),
+                card("d", "b", "done", 0)));
+
+        order.reset(board);
+    }
+
+    private void assertBoardIndexes(int... indexes) {
+        for (int i = 0; i < indexes.length; i++) {
+            assertEquals(indexes[i], board.get(i).index);
+        }
+    }
+
+    @Test
+    public void testMoveInsideColumn() {
+        TestCard moved = card("c", "a", "todo", -1);
+        order.update(moved);
+        assertEquals(0, moved.index);
+
+        // The cards given to the ordering are never renumbered
+        assertBoardIndexes(0, 1, 2, 0);
+
+        // But its own entries were
+        TestCard next = card("b", "d", "todo", -1);
+        order.update(next);
+        assertEquals(2, next.index);
+    }
+
+    @Test
+    public void testMoveBetweenColumns() {
+        TestCard moved = card("a", "a", "done", -1);
+        order.update(moved);
+        assertEquals(0, moved.index);
+        assertBoardIndexes(0, 1, 2, 0);
+
+        TestCard done = card("d", "b", "done", -1);
+        order.update(done);
+        assertEquals(1, done.index);
+
+        TestCard todo = card("c", "f", "todo", -1);
+        order.update(todo);
+        assertEquals(1, todo.index);
+    }
+
+    @Test
+    public void testRemove() {
+        order.remove("a");
+        assertBoardIndexes(0, 1, 2, 0);
+
+        TestCard card = card("c", "f", "todo", -1);
+        order.update(card);
+        assertEquals(1, card.index);
+    }
+
+    @Test
+    public void testCardChangedAfterReset() {
+        // Changing a card after it was given to the ordering doesn't affect it
+        board.get(0).type = "done";
+        board.get(0).name = "z";
+
+        TestCard card = card("b", "d", "todo", -1);
+        order.update(card);
+        assertEquals(1, card.index);
+    }
+
+}
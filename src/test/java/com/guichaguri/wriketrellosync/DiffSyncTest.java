@@ -0,0 +1,126 @@
+package com.guichaguri.wriketrellosync;
+
+import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.HistoryCard;
+import com.guichaguri.wriketrellosync.history.MemoryHistoryStore;
+import com.guichaguri.wriketrellosync.trello.TrelloStandIn;
+import com.guichaguri.wriketrellosync.wrike.WrikeStandIn;
+import fi.iki.elonen.NanoHTTPD.Method;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DiffSyncTest {
+
+    private FakeSyncManager trello, wrike;
+    private ISyncManager[] managers;
+    private History history;
+
+    @Before
+    public void setUp() {
+        trello = new FakeSyncManager("trello");
+        wrike = new FakeSyncManager("wrike");
+        managers = new ISyncManager[] {trello, wrike};
+        history = new History(new MemoryHistoryStore());
+    }
+
+    @Test
+    public void testDeltaRetrievesOutdatedChangesAgain() {
+        trello.put(new TestCard("t1", "Card", "todo"));
+        DiffSync.process(managers, history);
+
+        HistoryCard cached = history.findBySlugId("trello", "t1");
+        String wrikeId = cached.ids.get("wrike");
+
+        // The card is renamed in Trello, then renamed again in Wrike after the Trello change was propagated.
+        // The Wrike change list still has the state of the card from before the cycle.
+        TestCard renamed = trello.put(new TestCard("t1", "Renamed in Trello", "todo"));
+        TestCard stale = wrike.find(wrikeId);
+
+        trello.changes = new CardChanges();
+        trello.changes.updated.add(renamed.copy());
+        wrike.changes = new CardChanges();
+        wrike.changes.updated.add(stale);
+
+        assertTrue(DiffSync.processDelta(managers, history));
+
+        // The stale Wrike entry doesn't bring back the old name
+        assertEquals("Renamed in Trello", trello.find("t1").name);
+        assertEquals("Renamed in Trello", wrike.find(wrikeId).name);
+        assertEquals("Renamed in Trello", history.findBySlugId("wrike", wrikeId).name);
+    }
+
+    @Test
+    public void testDeltaKeepsNewerChanges() {
+        trello.put(new TestCard("t1", "Card", "todo"));
+        DiffSync.process(managers, history);
+
+        String wrikeId = history.findBySlugId("trello", "t1").ids.get("wrike");
+
+        // The card is moved in Trello, and someone is assigned to it in Wrike.
+        // The Wrike change list was retrieved before the assignment.
+        trello.changes = new CardChanges();
+        trello.changes.updated.add(trello.put(new TestCard("t1", "Card", "doing")).copy());
+
+        wrike.changes = new CardChanges();
+        wrike.changes.updated.add(wrike.find(wrikeId));
+        wrike.put(new TestCard(wrikeId, "Card", "todo").withUsers("alice"));
+
+        assertTrue(DiffSync.processDelta(managers, history));
+
+        // Neither change is lost
+        TestCard expected = new TestCard("t1", "Card", "doing").withUsers("alice");
+        assertTrue(trello.find("t1").isEquals(expected));
+        assertTrue(wrike.find(wrikeId).isEquals(expected));
+        assertTrue(history.findBySlugId("trello", "t1").isEquals(expected));
+    }
+
+    @Test
+    public void testSecondRunWritesNothing() throws IOException {
+        TrelloStandIn trelloApi = new TrelloStandIn();
+        WrikeStandIn wrikeApi = new WrikeStandIn();
+
+        try {
+            trelloApi.add("Plain card", "L1");
+            trelloApi.add("Described card", "L2").put("desc", "Has a description");
+            trelloApi.add("Due card", "L3")
+                    .put("due", "2019-07-10T12:00:00.000Z")
+                    .put("dueComplete", true)
+                    .put("idMembers", new JSONArray().put(TrelloStandIn.ALICE));
+
+            wrikeApi.add("Backlog task", "S2");
+            wrikeApi.add("Completed task", "S3")
+                    .put("status", "Completed")
+                    .put("dates", new JSONObject().put("type", "Milestone").put("due", "2019-08-01T17:00:00"))
+                    .put("responsibleIds", new JSONArray().put(WrikeStandIn.ALICE));
+
+            ISyncManager[] platforms = {trelloApi.createManager(), wrikeApi.createManager()};
+
+            // Each card is created in the other platform
+            DiffSync.process(platforms, history);
+            assertEquals(2, countWrites(trelloApi.getServer()));
+            assertEquals(3, countWrites(wrikeApi.getServer()));
+
+            trelloApi.getServer().getRequests().clear();
+            wrikeApi.getServer().getRequests().clear();
+
+            // The values read back are the same that were written, so there's nothing to send
+            DiffSync.process(platforms, history);
+            assertEquals(0, countWrites(trelloApi.getServer()));
+            assertEquals(0, countWrites(wrikeApi.getServer()));
+        } finally {
+            trelloApi.stop();
+            wrikeApi.stop();
+        }
+    }
+
+    private static long countWrites(StandInServer server) {
+        return server.getRequests().stream().filter(req -> req.method != Method.GET).count();
+    }
+
+}
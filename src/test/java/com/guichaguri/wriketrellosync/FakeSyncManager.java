@@ -0,0 +1,110 @@
+package com.guichaguri.wriketrellosync;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A platform kept in memory for tests, counting the writes it receives
+ */
+public class FakeSyncManager implements ISyncManager {
+
+    private final String slug;
+    private final Map<String, TestCard> cards = new LinkedHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    public final AtomicInteger adds = new AtomicInteger();
+    public final AtomicInteger updates = new AtomicInteger();
+    public final AtomicInteger removes = new AtomicInteger();
+
+    /**
+     * The changes answered by {@link #getChangesSince(Instant)}, or {@code null} to need a full synchronization
+     */
+    public CardChanges changes;
+
+    public FakeSyncManager(String slug) {
+        this.slug = slug;
+    }
+
+    /**
+     * Changes a card directly in the platform, without counting it as a write
+     */
+    public synchronized TestCard put(TestCard card) {
+        cards.put(card.id, card.copy());
+        return card;
+    }
+
+    public synchronized TestCard find(String id) {
+        TestCard card = cards.get(id);
+        return card == null ? null : card.copy();
+    }
+
+    public int writes() {
+        return adds.get() + updates.get() + removes.get();
+    }
+
+    public void resetCounts() {
+        adds.set(0);
+        updates.set(0);
+        removes.set(0);
+    }
+
+    @Override
+    public String getSlug() {
+        return slug;
+    }
+
+    @Override
+    public synchronized List<Card> getCards() {
+        List<Card> list = new ArrayList<>();
+        for (TestCard card : cards.values()) list.add(card.copy());
+        return list;
+    }
+
+    @Override
+    public CardChanges getChangesSince(Instant since) {
+        return changes;
+    }
+
+    @Override
+    public Card getCard(String cardId) {
+        return find(cardId);
+    }
+
+    @Override
+    public synchronized String addCard(Card card) {
+        adds.incrementAndGet();
+
+        TestCard added = new TestCard(slug + nextId.getAndIncrement(), card.name, card.type);
+        added.copyFrom(card);
+        cards.put(added.id, added);
+
+        return added.id;
+    }
+
+    @Override
+    public synchronized void updateCard(String cardId, Card card, CardDiff diff) {
+        updates.incrementAndGet();
+
+        // Only the changed fields are applied, like the platforms do
+        TestCard current = cards.get(cardId);
+        if (diff.name) current.name = card.name;
+        if (diff.description) current.description = card.description;
+        if (diff.type) current.type = card.type;
+        if (diff.dueDate) current.dueDate = card.dueDate;
+        if (diff.dueComplete) current.dueComplete = card.dueComplete;
+        if (diff.hasUsers()) current.assignedUsers = new ArrayList<>(card.assignedUsers);
+    }
+
+    @Override
+    public synchronized void removeCard(String cardId) {
+        removes.incrementAndGet();
+        cards.remove(cardId);
+    }
+
+    @Override
+    public String handleWebhook(String requestBody) {
+        return null;
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.guichaguri.wriketrellosync;
+
+import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.HistoryCard;
+import com.guichaguri.wriketrellosync.history.MemoryHistoryStore;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReconciliationTest {
+
+    private static History createHistory(List<? extends Card> cards) {
+        History history = new History(new MemoryHistoryStore());
+
+        for (Card card : cards) {
+            HistoryCard c = new HistoryCard();
+            c.copyFrom(card);
+            c.ids.put("trello", card.getId());
+            c.ids.put("wrike", "w" + card.getId());
+            history.add(c);
+        }
+
+        return history;
+    }
+
+    private static List<Card> createCards(int amount) {
+        List<Card> cards = new ArrayList<>(amount);
+
+        for (int i = 0; i < amount; i++) {
+            cards.add(new TestCard(Integer.toString(i), "Card " + i, "todo"));
+        }
+
+        return cards;
+    }
+
+    @Test
+    public void testAddedRemovedUpdated() {
+        TestCard kept = new TestCard("1", "Kept", "todo");
+        TestCard changed = new TestCard("2", "Changed", "todo");
+        TestCard removed = new TestCard("3", "Removed", "todo");
+        History history = createHistory(Arrays.asList(kept, changed, removed));
+
+        TestCard changedNow = changed.copy();
+        changedNow.name = "Changed again";
+        TestCard added = new TestCard("4", "Added", "todo");
+
+        Reconciliation result = Reconciliation.compute("trello", history,
+                Arrays.asList(kept.copy(), changedNow, added), Collections.emptySet());
+
+        assertEquals(Collections.singletonList(added), result.added);
+        assertEquals(Collections.singletonList(changedNow), result.updated);
+        assertEquals(1, result.removed.size());
+        assertEquals("3", result.removed.get(0).ids.get("trello"));
+    }
+
+    @Test
+    public void testIgnoredIds() {
+        TestCard card = new TestCard("1", "Card", "todo");
+        History history = createHistory(Collections.singletonList(card));
+
+        TestCard changed = card.copy();
+        changed.name = "Changed";
+
+        // An ignored card is neither updated nor removed, even when missing
+        Reconciliation result = Reconciliation.compute("trello", history,
+                Collections.singletonList(changed), Collections.singleton("1"));
+        assertTrue(result.updated.isEmpty());
+
+        result = Reconciliation.compute("trello", history, Collections.emptyList(), Collections.singleton("1"));
+        assertTrue(result.removed.isEmpty());
+    }
+
+    @Test
+    public void testDuplicateIds() {
+        TestCard card = new TestCard("1", "Card", "todo");
+        History history = createHistory(Collections.emptyList());
+
+        Reconciliation result = Reconciliation.compute("trello", history,
+                Arrays.asList(card, card.copy()), Collections.emptySet());
+
+        assertEquals(1, result.added.size());
+    }
+
+    /**
+     * The reconciliation should take linear time.
+     * A tenfold increase in cards should take about ten times longer, a quadratic implementation would take a hundred.
+     *
+     * By default the times are only reported. The 100k cards run and the scaling check only happen
+     * with {@code -Dbenchmark.large=true}, as they depend on the load of the machine.
+     */
+    @Test
+    public void testLinearScaling() {
+        boolean large = Boolean.getBoolean("benchmark.large");
+        Map<Integer, Long> times = new LinkedHashMap<>();
+
+        // Warms up the JIT, so the first measurement isn't penalized
+        List<Card> warmup = createCards(10000);
+        History warmupHistory = createHistory(warmup);
+        for (int run = 0; run < 10; run++) {
+            Reconciliation.compute("trello", warmupHistory, warmup, Collections.emptySet());
+        }
+
+        for (int amount : large ? new int[] { 1000, 10000, 100000 } : new int[] { 1000, 10000 }) {
+            List<Card> cards = createCards(amount);
+            History history = createHistory(cards);
+
+            // Changes a tenth of the cards and removes another tenth
+            List<Card> current = new ArrayList<>(cards.size());
+
+            for (int i = 0; i < cards.size(); i++) {
+                if (i % 10 == 1) continue;
+
+                TestCard card = ((TestCard) cards.get(i)).copy();
+                if (i % 10 == 0) card.name += " changed";
+                current.add(card);
+            }
+
+            long best = Long.MAX_VALUE;
+
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                Reconciliation result = Reconciliation.compute("trello", history, current, Collections.emptySet());
+                best = Math.min(best, System.nanoTime() - start);
+
+                assertEquals(amount / 10, result.updated.size());
+                assertEquals(amount / 10, result.removed.size());
+            }
+
+            times.put(amount, best);
+            System.out.printf("Reconciliation of %d cards: %.2f ms%n", amount, best / 1_000_000D);
+        }
+
+        if (!large) return;
+
+        double ratio = (double) times.get(100000) / times.get(10000);
+        assertTrue("10k -> 100k cards took " + ratio + " times longer", ratio < 30);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.guichaguri.wriketrellosync;
+
+import com.guichaguri.wriketrellosync.history.History;
+import com.guichaguri.wriketrellosync.history.MemoryHistoryStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RetryQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file, deadLetterFile;
+    private RetryQueue queue;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "retry.json");
+        deadLetterFile = new File(folder.getRoot(), "dead-letter.jsonl");
+        queue = new RetryQueue(file, deadLetterFile, 2, 0, 0);
+    }
+
+    @Test
+    public void testKeepsLatestOperationOfCard() {
+        TestCard card = new TestCard("t1", "Card", "todo");
+
+        queue.add(RetryOperation.update("wrike", "w1", "trello", "t1", card), new RuntimeException());
+        queue.add(RetryOperation.update("wrike", "w1", "trello", "t1", card), new RuntimeException());
+        assertEquals(1, queue.size());
+
+        // A removal replaces the pending update
+        queue.add(RetryOperation.remove("wrike", "w1", "trello", "t1"), new RuntimeException());
+        assertEquals(1, queue.size());
+
+        queue.add(RetryOperation.remove("wrike", "w2", "trello", "t2"), new RuntimeException());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void testPersistsOperations() throws IOException {
+        queue.add(RetryOperation.remove("wrike", "w1", "trello", "t1"), new RuntimeException());
+
+        RetryQueue loaded = new RetryQueue(file, deadLetterFile, 2, 0, 0);
+        loaded.load();
+
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        FakeSyncManager wrike = new FakeSyncManager("wrike");
+        History history = new History(new MemoryHistoryStore());
+        ISyncManager[] managers = {wrike};
+
+        String id = wrike.addCard(new TestCard(null, "Card", "todo"));
+        queue.add(RetryOperation.remove("wrike", id, "trello", "t1"), new RuntimeException());
+        queue.replay(managers, history);
+
+        assertEquals(0, queue.size());
+        assertNull(wrike.find(id));
+    }
+
+    @Test
+    public void testDeadLetter() throws IOException {
+        ISyncManager[] managers = {new FakeSyncManager("wrike") {
+            @Override
+            public synchronized void removeCard(String cardId) {
+                throw new IllegalStateException("Unavailable");
+            }
+        }};
+        History history = new History(new MemoryHistoryStore());
+
+        // The first attempt is the one that failed before being queued
+        queue.add(RetryOperation.remove("wrike", "w1", "trello", "t1"), new RuntimeException());
+
+        queue.replay(managers, history);
+        assertEquals(1, queue.size());
+        assertFalse(deadLetterFile.exists());
+
+        queue.replay(managers, history);
+        assertEquals(0, queue.size());
+        assertTrue(new String(Files.readAllBytes(deadLetterFile.toPath())).contains("Unavailable"));
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.guichaguri.wriketrellosync;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for a platform API, answering requests with canned responses
+ */
+public class StandInServer extends NanoHTTPD {
+
+    /**
+     * A request received by the server
+     */
+    public static class Request {
+
+        public final Method method;
+        public final String path;
+        public final Map<String, String> params;
+
+        private Request(Method method, String path, Map<String, String> params) {
+            this.method = method;
+            this.path = path;
+            this.params = params;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path + " " + params;
+        }
+
+    }
+
+    private final Map<String, Function<Request, Response>> routes = new LinkedHashMap<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    public StandInServer() throws IOException {
+        super("127.0.0.1", 0);
+        start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getListeningPort();
+    }
+
+    /**
+     * Answers the requests of a method and path.
+     * A path ending with {@code *} answers every path that starts with it.
+     */
+    public void route(Method method, String path, Function<Request, Response> handler) {
+        routes.put(method + " " + path, handler);
+    }
+
+    /**
+     * Answers the requests of a method and path with a JSON body
+     */
+    public void json(Method method, String path, Function<Request, String> body) {
+        route(method, path, req -> newFixedLengthResponse(Response.Status.OK, "application/json", body.apply(req)));
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        Map<String, String> params = new HashMap<>();
+
+        try {
+            // Parses the form body of PUT and POST requests into the parameters
+            Map<String, String> files = new HashMap<>();
+            session.parseBody(files);
+
+            // NanoHTTPD only decodes POST forms, the body of a PUT is stored in a file instead
+            String content = files.get("content");
+
+            if (session.getMethod() == Method.PUT && content != null && !content.isEmpty()) {
+                String body = new String(Files.readAllBytes(Paths.get(content)), StandardCharsets.UTF_8);
+
+                for (String pair : body.split("&")) {
+                    if (pair.isEmpty()) continue;
+                    int i = pair.indexOf('=');
+                    params.put(URLDecoder.decode(i < 0 ? pair : pair.substring(0, i), "UTF-8"),
+                            i < 0 ? "" : URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+                }
+            }
+        } catch(IOException | ResponseException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        params.putAll(session.getParms());
+
+        Request request = new Request(session.getMethod(), session.getUri(), params);
+        requests.add(request);
+
+        Function<Request, Response> handler = findRoute(request.method + " " + request.path);
+
+        if (handler == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found");
+        }
+
+        return handler.apply(request);
+    }
+
+    private Function<Request, Response> findRoute(String key) {
+        Function<Request, Response> handler = routes.get(key);
+        if (handler != null) return handler;
+
+        for (Map.Entry<String, Function<Request, Response>> route : routes.entrySet()) {
+            String pattern = route.getKey();
+
+            if (pattern.endsWith("*") && key.startsWith(pattern.substring(0, pattern.length() - 1))) {
+                return route.getValue();
+            }
+        }
+
+        return null;
+    }
+
+}
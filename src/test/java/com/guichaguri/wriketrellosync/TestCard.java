@@ -0,0 +1,36 @@
+package com.guichaguri.wriketrellosync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A platform card for tests
+ */
+public class TestCard extends Card {
+
+    public String id;
+
+    public TestCard(String id, String name, String type) {
+        this.id = id;
+        this.name = name;
+        this.description = "";
+        this.type = type;
+    }
+
+    public TestCard withUsers(String... users) {
+        assignedUsers = new ArrayList<>(Arrays.asList(users));
+        return this;
+    }
+
+    public TestCard copy() {
+        TestCard card = new TestCard(id, name, type);
+        card.copyFrom(this);
+        return card;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static HistoryCard card(String trelloId, String wrikeId, String name) {
+        HistoryCard card = new HistoryCard();
+        card.name = name;
+        card.description = "Description of " + name;
+        card.type = "todo";
+        card.index = 3;
+        card.dueDate = LocalDate.of(2019, 6, 1);
+        card.dueComplete = true;
+        card.assignedUsers.addAll(Arrays.asList("alice", "bob"));
+        card.ids.put("trello", trelloId);
+        card.ids.put("wrike", wrikeId);
+        card.updateHash();
+        return card;
+    }
+
+    private FileHistoryStore reopen(File file, HistoryFormat format) throws IOException {
+        FileHistoryStore store = new FileHistoryStore(file, format, 1000);
+        store.load();
+        return store;
+    }
+
+    private void testRoundTrip(HistoryFormat format) throws IOException {
+        File file = new File(folder.getRoot(), "history");
+        FileHistoryStore store = reopen(file, format);
+
+        HistoryCard card = card("T1", "W1", "First");
+        HistoryCard removed = card("T2", "W2", "Second");
+        store.upsert(card);
+        store.upsert(removed);
+        store.delete(removed);
+        store.setCursor("trello", Instant.ofEpochSecond(1000));
+
+        // Compacts the journal into the snapshot
+        store.flush();
+
+        HistoryCard late = card("T3", "W3", "Third");
+        store.upsert(late);
+        store.close();
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // The snapshot has the first card and the journal has the third one
+        FileHistoryStore loaded = reopen(file, format);
+
+        HistoryCard first = loaded.find("wrike", "W1");
+        assertNotNull(first);
+        assertEquals(card.key, first.key);
+        assertTrue(first.isEquals(card));
+        assertEquals(card.contentHash(), first.contentHash());
+        assertEquals(card.index, first.index);
+        assertEquals("T1", first.ids.get("trello"));
+
+        assertNull(loaded.find("trello", "T2"));
+        assertNotNull(loaded.find("trello", "T3"));
+        assertEquals(Instant.ofEpochSecond(1000), loaded.getCursor("trello"));
+
+        loaded.close();
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        testRoundTrip(new JsonHistoryFormat());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        testRoundTrip(new BinaryHistoryFormat());
+    }
+
+    @Test
+    public void testCorruptedJournalEntry() throws IOException {
+        File file = new File(folder.getRoot(), "history");
+        FileHistoryStore store = reopen(file, new JsonHistoryFormat());
+        store.upsert(card("T1", "W1", "First"));
+        store.close();
+
+        // A crash in the middle of a write leaves an incomplete entry
+        Files.write(new File(file.getPath() + ".journal").toPath(),
+                "{\"op\":\"put\",\"card\":{".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        FileHistoryStore loaded = reopen(file, new JsonHistoryFormat());
+        assertNotNull(loaded.find("trello", "T1"));
+        loaded.close();
+    }
+
+    @Test
+    public void testLegacySnapshotWithJournal() throws IOException {
+        File file = new File(folder.getRoot(), "history");
+
+        // A history file written before the cards had keys
+        JSONArray legacy = new JSONArray();
+        for (HistoryCard card : Arrays.asList(card("T1", "W1", "First"), card("T2", "W2", "Second"))) {
+            JSONObject obj = card.toJson();
+            obj.remove("key");
+            obj.remove("hash");
+            legacy.put(obj);
+        }
+        Files.write(file.toPath(), legacy.toString().getBytes(StandardCharsets.UTF_8));
+
+        FileHistoryStore store = reopen(file, new JsonHistoryFormat());
+        HistoryCard first = store.find("trello", "T1");
+        first.name = "Renamed";
+        first.updateHash();
+        store.upsert(first);
+        store.delete(store.find("trello", "T2"));
+
+        // Crashes before the journal is compacted, the snapshot still has no keys
+        store.close();
+
+        FileHistoryStore loaded = reopen(file, new JsonHistoryFormat());
+        List<HistoryCard> cards = new ArrayList<>();
+        loaded.forEach(cards::add);
+
+        assertEquals(1, cards.size());
+        assertEquals(first.key, cards.get(0).key);
+        assertEquals("Renamed", loaded.find("wrike", "W1").name);
+        assertNull(loaded.find("trello", "T2"));
+
+        loaded.flush();
+        loaded.close();
+
+        // The compacted snapshot has no duplicates either
+        FileHistoryStore compacted = reopen(file, new JsonHistoryFormat());
+        cards.clear();
+        compacted.forEach(cards::add);
+
+        assertEquals(1, cards.size());
+        assertEquals(first.key, cards.get(0).key);
+        compacted.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedBinaryVersion() throws IOException {
+        File file = new File(folder.getRoot(), "history");
+        Files.write(file.toPath(), ByteBuffer.allocate(32).putInt(0x57545348).putInt(1).array());
+
+        new BinaryHistoryFormat().read(file, card -> fail("No card should be read"));
+    }
+
+}
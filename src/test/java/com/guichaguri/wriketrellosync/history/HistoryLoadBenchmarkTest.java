@@ -0,0 +1,179 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.json.JSONArray;
+import org.json.JSONTokener;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the load time and the heap used by the streaming history reader against
+ * parsing the whole file into a single {@link JSONArray} first, as it used to be done.
+ * Also compares the JSON and the binary formats.
+ *
+ * By default the numbers of small histories are only reported. The larger runs and the checks
+ * that depend on time and heap measurements only happen with {@code -Dbenchmark.large=true}.
+ * The 1M cards run needs a larger heap, which can be set with {@code -Dbenchmark.heap=6g}.
+ */
+public class HistoryLoadBenchmarkTest {
+
+    private static final String[] TYPES = {"todo", "doing", "done"};
+    private static final String[] USERS = {"alice", "bob", "carol", "dave"};
+    private static final boolean LARGE = Boolean.getBoolean("benchmark.large");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    interface Loader {
+        void load(File file, Consumer<HistoryCard> consumer) throws IOException;
+    }
+
+    /**
+     * The loading before the streaming reader, which kept the whole tree in memory
+     */
+    private static void loadTree(File file, Consumer<HistoryCard> consumer) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            JSONArray array = new JSONArray(new JSONTokener(reader));
+
+            for (int i = 0; i < array.length(); i++) {
+                consumer.accept(HistoryCard.parse(array.getJSONObject(i)));
+            }
+        }
+    }
+
+    static List<HistoryCard> createCards(int amount) {
+        List<HistoryCard> cards = new ArrayList<>(amount);
+
+        for (int i = 0; i < amount; i++) {
+            HistoryCard card = new HistoryCard();
+            card.name = "Card number " + i;
+            card.description = "The description of the card number " + i + ", which has a few more words";
+            card.type = TYPES[i % TYPES.length];
+            card.index = i;
+            card.assignedUsers.add(USERS[i % USERS.length]);
+            card.ids.put("trello", String.format("5d1b%020x", i));
+            card.ids.put("wrike", "IEAABC" + i);
+            card.updateHash();
+            cards.add(card);
+        }
+
+        return cards;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Measures the live heap when the last card is received, which is when the tree-based reader peaks
+     * @return The heap used by the load, in bytes
+     */
+    static long measureHeap(Loader loader, File file, int amount) throws IOException {
+        List<HistoryCard> loaded = new ArrayList<>(amount);
+        long[] peak = new long[1];
+        long base = usedHeap();
+
+        loader.load(file, card -> {
+            loaded.add(card);
+            if (loaded.size() == amount) peak[0] = usedHeap();
+        });
+
+        assertEquals(amount, loaded.size());
+        return peak[0] - base;
+    }
+
+    /**
+     * Measures the fastest of a few loads
+     * @return The time in milliseconds
+     */
+    static double measureTime(Loader loader, File file, int amount) throws IOException {
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < 3; run++) {
+            List<HistoryCard> loaded = new ArrayList<>(amount);
+            long start = System.nanoTime();
+
+            loader.load(file, loaded::add);
+
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(amount, loaded.size());
+        }
+
+        return best / 1_000_000D;
+    }
+
+    private void benchmark(int amount) throws IOException {
+        File file = folder.newFile();
+        new JsonHistoryFormat().write(file, createCards(amount));
+
+        JsonHistoryFormat format = new JsonHistoryFormat();
+
+        double treeTime = measureTime(HistoryLoadBenchmarkTest::loadTree, file, amount);
+        double streamTime = measureTime(format::read, file, amount);
+        long treeHeap = measureHeap(HistoryLoadBenchmarkTest::loadTree, file, amount);
+        long streamHeap = measureHeap(format::read, file, amount);
+
+        System.out.printf("History load of %d cards (%d KB): tree %.0f ms, %d KB heap; streaming %.0f ms, %d KB heap%n",
+                amount, file.length() / 1024, treeTime, treeHeap / 1024, streamTime, streamHeap / 1024);
+
+        if (LARGE) {
+            assertTrue("The streaming reader should not keep the JSON tree in memory", streamHeap < treeHeap);
+        }
+    }
+
+    @Test
+    public void testBinaryLoad() throws IOException {
+        int amount = LARGE ? 100_000 : 10_000;
+        List<HistoryCard> cards = createCards(amount);
+
+        HistoryFormat json = new JsonHistoryFormat();
+        File jsonFile = folder.newFile();
+        json.write(jsonFile, cards);
+
+        HistoryFormat binary = new BinaryHistoryFormat();
+        File binaryFile = folder.newFile();
+        binary.write(binaryFile, cards);
+
+        double jsonTime = measureTime(json::read, jsonFile, amount);
+        double binaryTime = measureTime(binary::read, binaryFile, amount);
+
+        System.out.printf("History load of %d cards: json %.0f ms (%d KB); binary %.0f ms (%d KB), %.1fx faster%n",
+                amount, jsonTime, jsonFile.length() / 1024, binaryTime, binaryFile.length() / 1024,
+                jsonTime / binaryTime);
+
+        if (LARGE) {
+            assertTrue("The binary format should load faster than JSON", binaryTime < jsonTime);
+        }
+    }
+
+    @Test
+    public void testLoad10k() throws IOException {
+        benchmark(10_000);
+    }
+
+    @Test
+    public void testLoad100k() throws IOException {
+        Assume.assumeTrue(LARGE);
+        benchmark(100_000);
+    }
+
+    @Test
+    public void testLoad1M() throws IOException {
+        Assume.assumeTrue(LARGE);
+        benchmark(1_000_000);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+public class HistoryTest {
+
+    private History history;
+    private HistoryCard card;
+
+    @Before
+    public void setUp() {
+        history = new History(new MemoryHistoryStore());
+
+        card = new HistoryCard();
+        card.name = "Card";
+        card.ids.put("trello", "T1");
+        card.ids.put("wrike", "W1");
+        history.add(card);
+    }
+
+    @Test
+    public void testSameLockFromEveryPlatform() {
+        Lock trello = history.lock("trello", "T1");
+        trello.unlock();
+
+        Lock wrike = history.lock("wrike", "W1");
+        wrike.unlock();
+
+        assertSame(trello, wrike);
+    }
+
+    @Test
+    public void testLockExcludesOtherPlatforms() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Lock lock = history.lock("trello", "T1");
+
+        try {
+            // A change coming from the other platform has to wait for the first one
+            Future<?> other = executor.submit(() -> history.lock("wrike", "W1").unlock());
+
+            try {
+                other.get(200, TimeUnit.MILLISECONDS);
+                fail("The card was locked from both platforms at the same time");
+            } catch(TimeoutException ex) {
+                // Expected
+            }
+
+            lock.unlock();
+            other.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAddedWhileWaiting() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Lock addLock = history.lock("trello", "T2");
+
+        try {
+            // Another thread finds no card, but it's added before the lock is released
+            Future<String> other = executor.submit(() -> {
+                history.lock("trello", "T2").unlock();
+                return history.findBySlugId("trello", "T2").key;
+            });
+
+            HistoryCard added = new HistoryCard();
+            added.ids.put("trello", "T2");
+            history.add(added);
+
+            addLock.unlock();
+            assertEquals(added.key, other.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.guichaguri.wriketrellosync.history;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A store that keeps the cards only in memory, for tests
+ */
+public class MemoryHistoryStore implements HistoryStore {
+
+    private final Map<String, HistoryCard> cards = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> indexedIds = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, HistoryCard>> index = new ConcurrentHashMap<>();
+    private final Map<String, Instant> cursors = new ConcurrentHashMap<>();
+
+    @Override
+    public void load() {
+
+    }
+
+    @Override
+    public HistoryCard find(String slug, String id) {
+        Map<String, HistoryCard> ids = index.get(slug);
+        return ids == null ? null : ids.get(id);
+    }
+
+    @Override
+    public synchronized void upsert(HistoryCard card) {
+        delete(card);
+        cards.put(card.key, card);
+        indexedIds.put(card.key, new HashMap<>(card.ids));
+        card.ids.forEach((slug, id) -> index.computeIfAbsent(slug, s -> new ConcurrentHashMap<>()).put(id, card));
+    }
+
+    @Override
+    public synchronized void delete(HistoryCard card) {
+        cards.remove(card.key);
+
+        Map<String, String> ids = indexedIds.remove(card.key);
+        if (ids != null) ids.forEach((slug, id) -> index.get(slug).remove(id));
+    }
+
+    @Override
+    public void forEach(String slug, BiConsumer<String, HistoryCard> consumer) {
+        Map<String, HistoryCard> ids = index.get(slug);
+        if (ids != null) ids.forEach(consumer);
+    }
+
+    @Override
+    public void forEach(Consumer<HistoryCard> consumer) {
+        cards.values().forEach(consumer);
+    }
+
+    @Override
+    public Instant getCursor(String slug) {
+        return cursors.get(slug);
+    }
+
+    @Override
+    public void setCursor(String slug, Instant cursor) {
+        cursors.put(slug, cursor);
+    }
+
+    @Override
+    public void flush() {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+}
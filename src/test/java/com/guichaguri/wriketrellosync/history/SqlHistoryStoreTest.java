@@ -0,0 +1,97 @@
+package com.guichaguri.wriketrellosync.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SqlHistoryStoreTest {
+
+    private SqlHistoryStore store;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        // The database lives while there is a connection open to it
+        url = "jdbc:h2:mem:" + UUID.randomUUID();
+        store = new SqlHistoryStore(url);
+        store.load();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void testSameInstance() {
+        store.upsert(FileHistoryStoreTest.card("T1", "W1", "Card"));
+
+        HistoryCard trello = store.find("trello", "T1");
+        HistoryCard wrike = store.find("wrike", "W1");
+        assertSame(trello, wrike);
+
+        List<HistoryCard> all = new ArrayList<>();
+        store.forEach(all::add);
+        assertSame(trello, all.get(0));
+    }
+
+    @Test
+    public void testConcurrentChangesAreKept() throws IOException {
+        store.upsert(FileHistoryStoreTest.card("T1", "W1", "Card"));
+
+        // Two changes to the same card, coming from different platforms
+        HistoryCard fromTrello = store.find("trello", "T1");
+        HistoryCard fromWrike = store.find("wrike", "W1");
+
+        fromTrello.name = "Renamed";
+        fromTrello.updateHash();
+        fromWrike.ids.put("github", "G1");
+
+        store.upsert(fromWrike);
+        store.upsert(fromTrello);
+
+        // Reads it back from the database through another store
+        SqlHistoryStore other = new SqlHistoryStore(url);
+        other.load();
+
+        HistoryCard stored = other.find("github", "G1");
+        assertNotNull(stored);
+        assertEquals("Renamed", stored.name);
+
+        other.close();
+    }
+
+    @Test
+    public void testDelete() {
+        HistoryCard card = FileHistoryStoreTest.card("T1", "W1", "Card");
+        store.upsert(card);
+        store.delete(card);
+
+        assertNull(store.find("trello", "T1"));
+        assertNull(store.find("wrike", "W1"));
+
+        // Adding it again doesn't bring back anything from the deleted card
+        HistoryCard added = FileHistoryStoreTest.card("T1", "W2", "Card");
+        store.upsert(added);
+        assertSame(added, store.find("trello", "T1"));
+    }
+
+    @Test
+    public void testCursor() {
+        assertNull(store.getCursor("trello"));
+
+        store.setCursor("trello", Instant.ofEpochSecond(1000));
+        store.setCursor("trello", Instant.ofEpochSecond(2000));
+
+        assertEquals(Instant.ofEpochSecond(2000), store.getCursor("trello"));
+    }
+
+}
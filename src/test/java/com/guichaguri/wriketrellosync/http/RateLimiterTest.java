@@ -0,0 +1,71 @@
+package com.guichaguri.wriketrellosync.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private static long measure(RateLimiter limiter, int requests) throws InterruptedException {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            limiter.acquire();
+        }
+
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @Test
+    public void testBurst() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 10);
+
+        // The whole burst is available right away
+        assertTrue(measure(limiter, 10) < 500);
+    }
+
+    @Test
+    public void testPacing() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(50, 1);
+
+        // The first request uses the burst, the other 10 are spread at 20ms each
+        long time = measure(limiter, 11);
+
+        assertTrue("Took " + time + "ms", time >= 180);
+        assertTrue("Took " + time + "ms", time < 1000);
+    }
+
+    @Test
+    public void testPause() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1000, 10);
+        limiter.pause(300);
+
+        long time = measure(limiter, 1);
+
+        assertTrue("Took " + time + "ms", time >= 280);
+    }
+
+    @Test
+    public void testDrain() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(10, 10);
+        limiter.drain();
+
+        // The burst is gone, so the next request waits for a token to be refilled
+        long time = measure(limiter, 1);
+
+        assertTrue("Took " + time + "ms", time >= 80);
+    }
+
+    @Test
+    public void testInvalidRate() {
+        for (double rate : new double[] {0, -1, Double.NaN}) {
+            try {
+                new RateLimiter(rate, 10);
+                fail("The rate " + rate + " should be rejected");
+            } catch(IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+    }
+
+}
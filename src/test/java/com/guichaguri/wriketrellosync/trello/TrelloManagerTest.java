@@ -0,0 +1,276 @@
+package com.guichaguri.wriketrellosync.trello;
+
+import com.guichaguri.wriketrellosync.Card;
+import com.guichaguri.wriketrellosync.CardDiff;
+import com.guichaguri.wriketrellosync.Mapping;
+import com.guichaguri.wriketrellosync.StandInServer;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import com.guichaguri.wriketrellosync.http.NetworkConfig;
+import com.guichaguri.wriketrellosync.http.RateLimiter;
+import fi.iki.elonen.NanoHTTPD.Method;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TrelloManagerTest {
+
+    static final String BOARD = "BOARD";
+    static final String CARD_FIELDS = "id,name,desc,idList,pos,due,dueComplete,idMembers,closed";
+    private static final int BOARD_SIZE = 2500;
+    private static final String[] LISTS = {"L1", "L2", "L3"};
+
+    /**
+     * How the stand-in server picks and sorts a limited page
+     */
+    enum PageOrder {
+        NEWEST_FIRST, NEWEST_ASCENDING, OLDEST_FIRST
+    }
+
+    private StandInServer server;
+    private TrelloManager manager;
+    private List<JSONObject> board;
+    private PageOrder pageOrder = PageOrder.NEWEST_FIRST;
+
+    /**
+     * Reads the recorded card, which has every attribute Trello returns when no fields are requested
+     */
+    static JSONObject loadRecordedCard() throws IOException {
+        try (InputStream stream = TrelloManagerTest.class.getResourceAsStream("/trello/card.json")) {
+            return new JSONObject(new JSONTokener(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Generates a board from the recorded card, sorted by id
+     */
+    static List<JSONObject> createBoard(int size) throws IOException {
+        JSONObject recorded = loadRecordedCard();
+        List<JSONObject> cards = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            JSONObject card = new JSONObject(recorded.toString());
+            card.put("id", String.format("%08x%016x", 0x5d000000 + i, i));
+            card.put("name", "Card " + i);
+            card.put("idList", LISTS[i % LISTS.length]);
+            card.put("pos", 1024 * (i + 1));
+            card.put("idShort", i);
+            cards.add(card);
+        }
+
+        return cards;
+    }
+
+    /**
+     * Keeps only the requested fields of a card, or all of them if none were requested
+     */
+    static JSONObject project(JSONObject card, String fields) {
+        if (fields == null) return card;
+
+        JSONObject projected = new JSONObject();
+
+        for (String field : fields.split(",")) {
+            projected.put(field, card.opt(field));
+        }
+
+        return projected;
+    }
+
+    static TrelloManager createManager(StandInServer server) {
+        Map<String, String> lists = new HashMap<>();
+        lists.put("todo", LISTS[0]);
+        lists.put("doing", LISTS[1]);
+        lists.put("done", LISTS[2]);
+
+        TrelloManager manager = new TrelloManager("trello", "key", "token", BOARD,
+                new Mapping(lists), new Mapping(Collections.singletonMap("alice", "5a1b2c3d4e5f607182930001")),
+                new ApiClient("trello", new NetworkConfig(), new RateLimiter(1000, 1000), 0));
+
+        manager.setApiBase(server.getBaseUrl());
+        return manager;
+    }
+
+    /**
+     * Answers a page of cards like Trello, with the current page order
+     */
+    private String answerCards(StandInServer.Request req) {
+        String before = req.params.get("before");
+        String since = req.params.get("since");
+        int limit = Integer.parseInt(req.params.getOrDefault("limit", "1000"));
+
+        List<JSONObject> matching = board.stream()
+                .filter(c -> before == null || c.getString("id").compareTo(before) < 0)
+                .filter(c -> since == null || c.getString("id").compareTo(since) > 0)
+                .collect(Collectors.toList());
+
+        List<JSONObject> page;
+
+        if (pageOrder == PageOrder.OLDEST_FIRST) {
+            page = matching.subList(0, Math.min(limit, matching.size()));
+        } else {
+            page = new ArrayList<>(matching.subList(Math.max(0, matching.size() - limit), matching.size()));
+            if (pageOrder == PageOrder.NEWEST_FIRST) Collections.reverse(page);
+        }
+
+        JSONArray array = new JSONArray();
+        for (JSONObject card : page) array.put(project(card, req.params.get("fields")));
+
+        return array.toString();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        board = createBoard(BOARD_SIZE);
+        server = new StandInServer();
+        server.json(Method.GET, "/boards/" + BOARD + "/cards", this::answerCards);
+        manager = createManager(server);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private void assertWholeBoard() {
+        List<Card> cards = manager.getCards();
+        Set<String> ids = cards.stream().map(Card::getId).collect(Collectors.toSet());
+
+        assertEquals(BOARD_SIZE, cards.size());
+        assertEquals(BOARD_SIZE, ids.size());
+
+        for (StandInServer.Request request : server.getRequests()) {
+            assertEquals(CARD_FIELDS, request.params.get("fields"));
+        }
+    }
+
+    @Test
+    public void testPagesNewestFirst() {
+        pageOrder = PageOrder.NEWEST_FIRST;
+        assertWholeBoard();
+    }
+
+    @Test
+    public void testPagesNewestAscending() {
+        pageOrder = PageOrder.NEWEST_ASCENDING;
+        assertWholeBoard();
+    }
+
+    @Test
+    public void testPagesOldestFirst() {
+        pageOrder = PageOrder.OLDEST_FIRST;
+        assertWholeBoard();
+    }
+
+    @Test
+    public void testStopsWhenNothingNew() {
+        // A server that ignores the paging parameters and always answers with the same full page
+        JSONArray page = new JSONArray(board.subList(0, 1000));
+        server.json(Method.GET, "/boards/" + BOARD + "/cards", req -> page.toString());
+
+        assertEquals(1000, manager.getCards().size());
+        assertEquals(3, server.getRequests().size());
+    }
+
+    @Test
+    public void testParsesRecordedCard() throws IOException {
+        board = Collections.singletonList(loadRecordedCard().put("idList", LISTS[1]));
+
+        Card card = manager.getCards().get(0);
+
+        assertEquals("Fix the settings screen on small phones", card.name);
+        assertEquals("doing", card.type);
+        assertEquals(LocalDate.of(2019, 7, 10), card.dueDate);
+        assertFalse(card.dueComplete);
+        assertEquals(Collections.singletonList("alice"), card.assignedUsers);
+    }
+
+    @Test
+    public void testParsesClearedDueDate() throws IOException {
+        board = Collections.singletonList(loadRecordedCard().put("idList", LISTS[0]).put("due", JSONObject.NULL));
+
+        assertNull(manager.getCards().get(0).dueDate);
+    }
+
+    @Test
+    public void testClearedValuesAreSent() {
+        server.json(Method.PUT, "/cards/CARD", req -> "{}");
+
+        TrelloCard card = new TrelloCard();
+        card.id = "CARD";
+        card.name = "Card";
+        card.type = "todo";
+        card.dueDate = LocalDate.of(2019, 7, 10);
+        card.dueComplete = true;
+
+        TrelloCard cleared = new TrelloCard();
+        cleared.copyFrom(card);
+        cleared.id = card.id;
+        cleared.dueDate = null;
+        cleared.dueComplete = false;
+
+        manager.updateCard(card.id, cleared, CardDiff.compute(card, cleared));
+
+        StandInServer.Request request = server.getRequests().get(0);
+        assertEquals(Method.PUT, request.method);
+        assertEquals("false", request.params.get("dueComplete"));
+        assertEquals("null", request.params.get("due"));
+    }
+
+    /**
+     * Compares the size of a board with all fields against the fields the manager requests.
+     * The board is generated from the recorded card response, so every card has all of its attributes,
+     * but they don't vary in size like a recorded board response would. Only the sizes are checked,
+     * the parse times are just reported.
+     */
+    @Test
+    public void testFieldProjectionSize() throws IOException {
+        JSONArray full = new JSONArray();
+        JSONArray projected = new JSONArray();
+
+        for (JSONObject card : createBoard(10_000)) {
+            full.put(card);
+            projected.put(project(card, CARD_FIELDS));
+        }
+
+        String fullPayload = full.toString();
+        String projectedPayload = projected.toString();
+
+        double fullTime = measureParse(fullPayload);
+        double projectedTime = measureParse(projectedPayload);
+
+        System.out.printf("Trello board of 10000 cards: all fields %d KB, parsed in %.0f ms; " +
+                        "projected %d KB, parsed in %.0f ms%n",
+                fullPayload.length() / 1024, fullTime, projectedPayload.length() / 1024, projectedTime);
+
+        assertTrue(projectedPayload.length() * 3 < fullPayload.length());
+    }
+
+    /**
+     * Measures the fastest of a few parses
+     * @return The time in milliseconds
+     */
+    private static double measureParse(String payload) {
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            assertTrue(new JSONArray(payload).length() > 0);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best / 1_000_000D;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.guichaguri.wriketrellosync.trello;
+
+import com.guichaguri.wriketrellosync.Mapping;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import com.guichaguri.wriketrellosync.http.NetworkConfig;
+import com.guichaguri.wriketrellosync.http.RateLimiter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares parsing a board with the indexed mappings against the linear search the mappings used to do.
+ * The page is generated, so it can have more lists and members than a recorded board.
+ *
+ * By default a smaller page is parsed and the times are only reported.
+ * The full page and the comparison only happen with {@code -Dbenchmark.large=true}.
+ */
+public class TrelloParseBenchmarkTest {
+
+    private static final boolean LARGE = Boolean.getBoolean("benchmark.large");
+    private static final int CARDS = LARGE ? 20_000 : 2_000;
+    private static final int LISTS = 50;
+    private static final int USERS = 1000;
+    private static final int MEMBERS_PER_CARD = 4;
+
+    private static String listId(int i) {
+        return String.format("5c%022x", i);
+    }
+
+    private static String userId(int i) {
+        return String.format("5a%022x", i);
+    }
+
+    private static Map<String, String> createMap(int size, boolean lists) {
+        Map<String, String> map = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            map.put((lists ? "list" : "user") + i, lists ? listId(i) : userId(i));
+        }
+
+        return map;
+    }
+
+    /**
+     * Generates a page of cards spread across all lists and users
+     */
+    private static JSONArray createPage() {
+        JSONArray page = new JSONArray();
+
+        for (int i = 0; i < CARDS; i++) {
+            JSONArray members = new JSONArray();
+
+            for (int m = 0; m < MEMBERS_PER_CARD; m++) {
+                members.put(userId((i * MEMBERS_PER_CARD + m) % USERS));
+            }
+
+            page.put(new JSONObject()
+                    .put("id", String.format("%08x%016x", 0x5d000000 + i, i))
+                    .put("name", "Card " + i)
+                    .put("desc", "")
+                    .put("idList", listId(i % LISTS))
+                    .put("pos", 1024 * (i + 1))
+                    .put("due", JSONObject.NULL)
+                    .put("dueComplete", false)
+                    .put("idMembers", members)
+                    .put("closed", false));
+        }
+
+        return page;
+    }
+
+    /**
+     * The reverse lookup that was done before the mappings were indexed
+     */
+    private static String findKey(Map<String, String> map, String id) {
+        for(String type : map.keySet()) {
+            if (id.equals(map.get(type))) return type;
+        }
+        return null;
+    }
+
+    /**
+     * Parses the fields of a card that go through the mappings, looking them up with {@link #findKey}
+     */
+    private static int parseLinear(JSONObject obj, Map<String, String> lists, Map<String, String> users) {
+        String type = findKey(lists, obj.optString("idList"));
+        if (type == null) return 0;
+
+        JSONArray members = obj.optJSONArray("idMembers");
+        List<String> assignedUsers = new ArrayList<>();
+        for(int o = 0; o < members.length(); o++) {
+            String userId = findKey(users, members.getString(o));
+            if (userId != null) assignedUsers.add(userId);
+        }
+
+        return assignedUsers.size();
+    }
+
+    @Test
+    public void testMappedParsing() {
+        Map<String, String> lists = createMap(LISTS, true);
+        Map<String, String> users = createMap(USERS, false);
+        JSONArray page = createPage();
+
+        TrelloManager manager = new TrelloManager("trello", "key", "token", "BOARD",
+                new Mapping(lists), new Mapping(users),
+                new ApiClient("trello", new NetworkConfig(), new RateLimiter(1000, 1000), 0));
+
+        long mapped = Long.MAX_VALUE, linear = Long.MAX_VALUE;
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            int members = 0;
+
+            for (int i = 0; i < page.length(); i++) {
+                members += manager.parseCard(page.getJSONObject(i)).assignedUsers.size();
+            }
+
+            mapped = Math.min(mapped, System.nanoTime() - start);
+            assertEquals(CARDS * MEMBERS_PER_CARD, members);
+
+            start = System.nanoTime();
+            members = 0;
+
+            for (int i = 0; i < page.length(); i++) {
+                members += parseLinear(page.getJSONObject(i), lists, users);
+            }
+
+            linear = Math.min(linear, System.nanoTime() - start);
+            assertEquals(CARDS * MEMBERS_PER_CARD, members);
+        }
+
+        System.out.printf("Parsing %d cards with %d lists and %d users: mapped %.1f ms, linear search %.1f ms%n",
+                CARDS, LISTS, USERS, mapped / 1_000_000D, linear / 1_000_000D);
+
+        if (LARGE) assertTrue(mapped < linear);
+    }
+
+}
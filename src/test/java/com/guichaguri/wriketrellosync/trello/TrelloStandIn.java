@@ -0,0 +1,145 @@
+package com.guichaguri.wriketrellosync.trello;
+
+import com.guichaguri.wriketrellosync.Mapping;
+import com.guichaguri.wriketrellosync.StandInServer;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import com.guichaguri.wriketrellosync.http.NetworkConfig;
+import com.guichaguri.wriketrellosync.http.RateLimiter;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Trello board kept by a stand-in server, storing the written values the way Trello returns them
+ */
+public class TrelloStandIn {
+
+    public static final String BOARD = "BOARD";
+    public static final String ALICE = "5a1b2c3d4e5f607182930001";
+
+    private final StandInServer server;
+    private final Map<String, JSONObject> cards = new LinkedHashMap<>();
+    private int nextId = 1;
+    private double nextPos = 16384;
+
+    public TrelloStandIn() throws IOException {
+        server = new StandInServer();
+        server.json(Method.GET, "/boards/" + BOARD + "/cards", req -> list());
+        server.json(Method.POST, "/cards", req -> create(req).toString());
+        server.route(Method.PUT, "/cards/*", this::update);
+    }
+
+    public StandInServer getServer() {
+        return server;
+    }
+
+    public TrelloManager createManager() {
+        Map<String, String> lists = new HashMap<>();
+        lists.put("todo", "L1");
+        lists.put("doing", "L2");
+        lists.put("done", "L3");
+
+        TrelloManager manager = new TrelloManager("trello", "key", "token", BOARD,
+                new Mapping(lists), new Mapping(Collections.singletonMap("alice", ALICE)),
+                new ApiClient("trello", new NetworkConfig(), new RateLimiter(1000, 1000), 0));
+
+        manager.setApiBase(server.getBaseUrl());
+        return manager;
+    }
+
+    /**
+     * Creates a card directly in the board
+     */
+    public synchronized JSONObject add(String name, String list) {
+        JSONObject card = new JSONObject()
+                .put("id", String.format("5d%022x", nextId++))
+                .put("name", name)
+                .put("desc", "")
+                .put("idList", list)
+                .put("pos", nextPos)
+                .put("due", JSONObject.NULL)
+                .put("dueComplete", false)
+                .put("idMembers", new JSONArray())
+                .put("closed", false);
+
+        nextPos += 16384;
+        cards.put(card.getString("id"), card);
+        return card;
+    }
+
+    public synchronized JSONObject find(String id) {
+        return cards.get(id);
+    }
+
+    private synchronized String list() {
+        JSONArray array = new JSONArray();
+
+        for (JSONObject card : cards.values()) {
+            if (!card.getBoolean("closed")) array.put(new JSONObject(card.toString()));
+        }
+
+        return array.toString();
+    }
+
+    private synchronized JSONObject create(StandInServer.Request req) {
+        JSONObject card = add(req.params.get("name"), req.params.get("idList"));
+        apply(card, req.params);
+        return card;
+    }
+
+    private synchronized Response update(StandInServer.Request req) {
+        JSONObject card = cards.get(req.path.substring("/cards/".length()));
+
+        if (card == null) {
+            return StandInServer.newFixedLengthResponse(Response.Status.NOT_FOUND, "text/plain",
+                    "The requested resource was not found.");
+        }
+
+        apply(card, req.params);
+        return StandInServer.newFixedLengthResponse(Response.Status.OK, "application/json", card.toString());
+    }
+
+    private static void apply(JSONObject card, Map<String, String> params) {
+        if (params.containsKey("name")) card.put("name", params.get("name"));
+        if (params.containsKey("desc")) card.put("desc", params.get("desc"));
+        if (params.containsKey("idList")) card.put("idList", params.get("idList"));
+        if (params.containsKey("closed")) card.put("closed", Boolean.parseBoolean(params.get("closed")));
+        if (params.containsKey("dueComplete")) card.put("dueComplete", Boolean.parseBoolean(params.get("dueComplete")));
+        if (params.containsKey("idMembers")) card.put("idMembers", parseIds(params.get("idMembers")));
+
+        if (params.containsKey("due")) {
+            String due = params.get("due");
+
+            // Trello returns the due date with a time, in UTC
+            card.put("due", due.isEmpty() || due.equals("null") ? JSONObject.NULL :
+                    LocalDate.parse(due, DateTimeFormatter.BASIC_ISO_DATE) + "T12:00:00.000Z");
+        }
+    }
+
+    /**
+     * Reads a list of ids, either comma-separated or as a JSON array
+     */
+    private static JSONArray parseIds(String value) {
+        if (value.startsWith("[")) return new JSONArray(value);
+
+        JSONArray array = new JSONArray();
+        for (String id : value.split(",")) {
+            if (!id.isEmpty()) array.put(id);
+        }
+        return array;
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.guichaguri.wriketrellosync.wrike;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TaskUpdateBatchTest {
+
+    // Each request: the task ids followed by the fields
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> failures = new CopyOnWriteArrayList<>();
+
+    private void record(List<String> ids, Map<String, String> fields) {
+        requests.add(ids + " " + fields);
+    }
+
+    private void addFailure(RuntimeException ex) {
+        failures.add(ex.getMessage());
+    }
+
+    private static Map<String, String> fields(String title) {
+        return Collections.singletonMap("title", title);
+    }
+
+    @Test
+    public void testGroupsEqualUpdates() {
+        TaskUpdateBatch batch = new TaskUpdateBatch(100, this::record);
+
+        batch.add("A", fields("x"), this::addFailure);
+        batch.add("B", fields("x"), this::addFailure);
+        batch.add("C", fields("y"), this::addFailure);
+        assertTrue(requests.isEmpty());
+
+        batch.flush();
+
+        assertEquals(Arrays.asList("[A, B] {title=x}", "[C] {title=y}"), requests);
+    }
+
+    @Test
+    public void testSendsFullBatch() {
+        TaskUpdateBatch batch = new TaskUpdateBatch(2, this::record);
+
+        batch.add("A", fields("x"), this::addFailure);
+        batch.add("B", fields("x"), this::addFailure);
+
+        assertEquals(Collections.singletonList("[A, B] {title=x}"), requests);
+    }
+
+    @Test
+    public void testKeepsOrderOfSameTask() {
+        TaskUpdateBatch batch = new TaskUpdateBatch(100, this::record);
+
+        batch.add("A", fields("first"), this::addFailure);
+        batch.add("A", fields("second"), this::addFailure);
+        batch.flush();
+
+        assertEquals(Arrays.asList("[A] {title=first}", "[A] {title=second}"), requests);
+    }
+
+    @Test
+    public void testReportsFailures() {
+        TaskUpdateBatch batch = new TaskUpdateBatch(100, (ids, fields) -> {
+            if (fields.get("title").equals("bad")) throw new IllegalStateException("Rejected " + ids);
+            record(ids, fields);
+        });
+
+        batch.add("A", fields("bad"), ex -> failures.add("A: " + ex.getMessage()));
+        batch.add("B", fields("bad"), ex -> failures.add("B: " + ex.getMessage()));
+        batch.add("C", fields("good"), ex -> failures.add("C: " + ex.getMessage()));
+
+        try {
+            batch.flush();
+            fail("The failure should be thrown");
+        } catch(IllegalStateException ex) {
+            // Expected
+        }
+
+        // Every task of the failed request is reported, and the other request is still sent
+        assertEquals(Arrays.asList("A: Rejected [A, B]", "B: Rejected [A, B]"), failures);
+        assertEquals(Collections.singletonList("[C] {title=good}"), requests);
+    }
+
+    @Test
+    public void testAddWhileSending() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TaskUpdateBatch batch = new TaskUpdateBatch(100, (ids, fields) -> {
+            sending.countDown();
+
+            try {
+                release.await();
+            } catch(InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            record(ids, fields);
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            batch.add("A", fields("x"), this::addFailure);
+            Future<?> flush = executor.submit(batch::flush);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            // Queueing another task doesn't wait for the request in progress
+            batch.add("B", fields("x"), this::addFailure);
+
+            release.countDown();
+            flush.get(5, TimeUnit.SECONDS);
+            batch.flush();
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals(Arrays.asList("[A] {title=x}", "[B] {title=x}"), requests);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.guichaguri.wriketrellosync.wrike;
+
+import com.guichaguri.wriketrellosync.Card;
+import com.guichaguri.wriketrellosync.CardDiff;
+import com.guichaguri.wriketrellosync.Mapping;
+import com.guichaguri.wriketrellosync.StandInServer;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import com.guichaguri.wriketrellosync.http.NetworkConfig;
+import com.guichaguri.wriketrellosync.http.RateLimiter;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WrikeManagerTest {
+
+    static final String FOLDER = "FOLDER";
+
+    private StandInServer server;
+    private WrikeManager manager;
+
+    static JSONObject task(String id, String title, String parent, String superParent) {
+        return new JSONObject()
+                .put("id", id)
+                .put("title", title)
+                .put("description", "")
+                .put("status", "Active")
+                .put("customStatusId", "S1")
+                .put("priority", id)
+                .put("responsibleIds", new JSONArray())
+                .put("parentIds", new JSONArray().put(parent))
+                .put("superParentIds", new JSONArray().put(superParent));
+    }
+
+    static String data(JSONObject... tasks) {
+        return new JSONObject().put("data", new JSONArray(tasks)).toString();
+    }
+
+    static WrikeManager createManager(StandInServer server, int batchSize) {
+        WrikeManager manager = new WrikeManager("wrike", "token", FOLDER,
+                new Mapping(Collections.singletonMap("todo", "S1")), new Mapping(Collections.emptyMap()),
+                new ApiClient("wrike", new NetworkConfig(), new RateLimiter(1000, 1000), 0), batchSize);
+
+        manager.setApiBase(server.getBaseUrl());
+        return manager;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        JSONObject inside = task("inside", "Inside", FOLDER, FOLDER);
+        JSONObject nested = task("nested", "Nested", "SUBFOLDER", FOLDER);
+        JSONObject outside = task("outside", "Outside", "OTHER", "OTHER");
+
+        server = new StandInServer();
+
+        // The folder listing includes the tasks of subfolders
+        server.json(Method.GET, "/folders/" + FOLDER + "/tasks", req -> data(inside, nested));
+        server.json(Method.GET, "/tasks/inside", req -> data(inside));
+        server.json(Method.GET, "/tasks/nested", req -> data(nested));
+        server.json(Method.GET, "/tasks/outside", req -> data(outside));
+
+        manager = createManager(server, 100);
+        manager.getCards();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testSubfolderTaskIsFound() {
+        Card nested = manager.getCard("nested");
+
+        assertNotNull("A task listed by getCards should also be found by getCard", nested);
+        assertEquals("Nested", nested.name);
+        assertNotNull(manager.getCard("inside"));
+    }
+
+    @Test
+    public void testTaskOutsideFolderIsNotFound() {
+        assertNull(manager.getCard("outside"));
+    }
+
+    @Test
+    public void testFailedUpdateIsReported() {
+        server.route(Method.PUT, "/tasks/inside,nested", req -> StandInServer.newFixedLengthResponse(
+                Response.Status.INTERNAL_ERROR, "application/json", "{}"));
+
+        Card card = manager.getCard("inside");
+        Card renamed = manager.getCard("inside");
+        renamed.name = "Renamed";
+
+        List<Exception> failures = new ArrayList<>();
+        CardDiff diff = CardDiff.compute(card, renamed);
+        manager.updateCard("inside", renamed, diff, failures::add);
+        manager.updateCard("nested", renamed, diff, failures::add);
+
+        // The updates are only sent on flush
+        assertTrue(failures.isEmpty());
+
+        try {
+            manager.flush();
+            fail("The failure should be thrown");
+        } catch(RuntimeException ex) {
+            // Expected
+        }
+
+        assertEquals(2, failures.size());
+    }
+
+    @Test
+    public void testClearedValuesAreSent() {
+        server.json(Method.PUT, "/tasks/inside", req -> data(task("inside", "Inside", FOLDER, FOLDER)));
+
+        Card card = manager.getCard("inside");
+        card.dueDate = LocalDate.of(2019, 7, 10);
+        card.dueComplete = true;
+
+        Card cleared = manager.getCard("inside");
+        manager.updateCard("inside", cleared, CardDiff.compute(card, cleared));
+        manager.flush();
+
+        StandInServer.Request request = server.getRequests().get(server.getRequests().size() - 1);
+        assertEquals(Method.PUT, request.method);
+        assertEquals("Active", request.params.get("status"));
+        assertEquals("Backlog", new JSONObject(request.params.get("dates")).getString("type"));
+        assertFalse(new JSONObject(request.params.get("dates")).has("due"));
+    }
+
+    @Test
+    public void testParsesBacklogDates() {
+        JSONObject backlog = task("backlog", "Backlog", FOLDER, FOLDER)
+                .put("dates", new JSONObject().put("type", "Backlog"));
+        server.json(Method.GET, "/tasks/backlog", req -> data(backlog));
+
+        assertNull(manager.getCard("backlog").dueDate);
+    }
+
+    @Test
+    public void testSingleTaskRequestsParentFields() {
+        manager.getCard("nested");
+
+        StandInServer.Request request = server.getRequests().get(server.getRequests().size() - 1);
+        assertTrue(request.params.get("fields").contains("superParentIds"));
+    }
+
+}
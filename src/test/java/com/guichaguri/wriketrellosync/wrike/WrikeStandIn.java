@@ -0,0 +1,146 @@
+package com.guichaguri.wriketrellosync.wrike;
+
+import com.guichaguri.wriketrellosync.Mapping;
+import com.guichaguri.wriketrellosync.StandInServer;
+import com.guichaguri.wriketrellosync.http.ApiClient;
+import com.guichaguri.wriketrellosync.http.NetworkConfig;
+import com.guichaguri.wriketrellosync.http.RateLimiter;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A Wrike folder kept by a stand-in server, storing the written values the way Wrike returns them
+ */
+public class WrikeStandIn {
+
+    public static final String FOLDER = "FOLDER";
+    public static final String ALICE = "KUAAAAAA";
+
+    private final StandInServer server;
+    private final Map<String, JSONObject> tasks = new LinkedHashMap<>();
+    private int nextId = 1;
+
+    public WrikeStandIn() throws IOException {
+        server = new StandInServer();
+        server.json(Method.GET, "/folders/" + FOLDER + "/tasks", req -> list());
+        server.json(Method.POST, "/folders/" + FOLDER + "/tasks", req -> data(create(req)));
+        server.route(Method.PUT, "/tasks/*", this::update);
+    }
+
+    public StandInServer getServer() {
+        return server;
+    }
+
+    public WrikeManager createManager() {
+        Map<String, String> statuses = new HashMap<>();
+        statuses.put("todo", "S1");
+        statuses.put("doing", "S2");
+        statuses.put("done", "S3");
+
+        WrikeManager manager = new WrikeManager("wrike", "token", FOLDER,
+                new Mapping(statuses), new Mapping(Collections.singletonMap("alice", ALICE)),
+                new ApiClient("wrike", new NetworkConfig(), new RateLimiter(1000, 1000), 0), 100);
+
+        manager.setApiBase(server.getBaseUrl());
+        return manager;
+    }
+
+    /**
+     * Creates a task directly in the folder
+     */
+    public synchronized JSONObject add(String title, String customStatus) {
+        String id = String.format("IEAAAAAA%08X", nextId);
+
+        JSONObject task = new JSONObject()
+                .put("id", id)
+                .put("title", title)
+                .put("description", "")
+                .put("status", "Active")
+                .put("customStatusId", customStatus)
+                .put("priority", String.format("%08x", nextId))
+                .put("dates", new JSONObject().put("type", "Backlog"))
+                .put("responsibleIds", new JSONArray())
+                .put("parentIds", new JSONArray().put(FOLDER))
+                .put("superParentIds", new JSONArray());
+
+        nextId++;
+        tasks.put(id, task);
+        return task;
+    }
+
+    public synchronized JSONObject find(String id) {
+        return tasks.get(id);
+    }
+
+    private static String data(JSONObject... tasks) {
+        return new JSONObject().put("data", new JSONArray(tasks)).toString();
+    }
+
+    private synchronized String list() {
+        return data(tasks.values().toArray(new JSONObject[0]));
+    }
+
+    private synchronized JSONObject create(StandInServer.Request req) {
+        JSONObject task = add(req.params.get("title"), req.params.get("customStatus"));
+        apply(task, req.params);
+        return task;
+    }
+
+    private synchronized Response update(StandInServer.Request req) {
+        List<JSONObject> updated = new ArrayList<>();
+
+        for (String id : req.path.substring("/tasks/".length()).split(",")) {
+            JSONObject task = tasks.get(id);
+
+            if (task == null) {
+                return StandInServer.newFixedLengthResponse(Response.Status.NOT_FOUND, "application/json",
+                        "{\"error\":\"resource_not_found\"}");
+            }
+
+            apply(task, req.params);
+            updated.add(task);
+        }
+
+        return StandInServer.newFixedLengthResponse(Response.Status.OK, "application/json",
+                data(updated.toArray(new JSONObject[0])));
+    }
+
+    private static void apply(JSONObject task, Map<String, String> params) {
+        if (params.containsKey("title")) task.put("title", params.get("title"));
+        if (params.containsKey("description")) task.put("description", params.get("description"));
+        if (params.containsKey("customStatus")) task.put("customStatusId", params.get("customStatus"));
+        if (params.containsKey("status")) task.put("status", params.get("status"));
+
+        if (params.containsKey("dates")) {
+            JSONObject dates = new JSONObject(params.get("dates"));
+
+            // Wrike returns the due date with the end of the working day
+            if (dates.has("due")) dates.put("due", dates.getString("due") + "T17:00:00");
+            task.put("dates", dates);
+        }
+
+        JSONArray responsibles = task.getJSONArray("responsibleIds");
+        Set<String> ids = new LinkedHashSet<>();
+        for (int i = 0; i < responsibles.length(); i++) ids.add(responsibles.getString(i));
+
+        if (params.containsKey("addResponsibles")) {
+            for (Object id : new JSONArray(params.get("addResponsibles"))) ids.add(id.toString());
+        }
+
+        if (params.containsKey("removeResponsibles")) {
+            for (Object id : new JSONArray(params.get("removeResponsibles"))) ids.remove(id.toString());
+        }
+
+        task.put("responsibleIds", new JSONArray(ids));
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+}